@@ -0,0 +1,238 @@
+package com.example.android.bookstore;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookDbHelper;
+import com.example.android.bookstore.data.BookProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the catalog list shows the books of the provider's cursors, and
+ * binds them without allocating while it scrolls.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookCursorAdapterTest {
+
+    // Prefix of the database file used by the test, so the app's inventory is left alone.
+    private static final String DATABASE_PREFIX = "adapter_test.";
+
+    // Number of books in the test catalog.
+    private static final int ROWS = 100;
+
+    // Number of list items on the screen, which are recycled while scrolling.
+    private static final int VISIBLE_ITEMS = 8;
+
+    // Columns of the books in the list.
+    private static final String[] COLUMNS = {BookEntry._ID, BookEntry.COLUMN_BOOK_PRODUCT_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR, BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY};
+
+    private Context context;
+    private BookProvider provider;
+    private BookCursorAdapter adapter;
+    private SQLiteDatabase database;
+    private FrameLayout parent;
+
+    @Before
+    public void createAdapter() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        provider = new BookProvider();
+        provider.attachInfo(context, null);
+        ContentValues[] books = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            books[i] = book(i);
+        }
+        assertEquals(ROWS, provider.bulkInsert(BookEntry.CONTENT_URI, books));
+
+        adapter = new BookCursorAdapter(context, null);
+        Cursor cursor = catalog();
+        adapter.swapCursor(cursor, 0, BookCursorAdapter.sortedIdsOf(cursor));
+        parent = new FrameLayout(context);
+    }
+
+    @After
+    public void deleteDatabase() {
+        Cursor cursor = adapter.swapCursor(null);
+        if (cursor != null) {
+            cursor.close();
+        }
+        if (database != null) {
+            database.close();
+        }
+        provider.shutdown();
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void bindView_showsBook() {
+        View view = adapter.getView(1, null, parent);
+
+        assertEquals("Title 1", text(view, R.id.tv_title));
+        assertEquals("Author 1", text(view, R.id.tv_author));
+        assertEquals(new PriceFormatter(Locale.getDefault()).format(1000),
+                text(view, R.id.tv_price));
+        assertEquals("1", text(view, R.id.tv_quantity));
+        assertEquals(context.getString(R.string.in_stock), text(view, R.id.tv_quantity_hint));
+    }
+
+    @Test
+    public void bindView_reusedView_showsNewStock() {
+        View view = adapter.getView(0, null, parent);
+        assertEquals(context.getString(R.string.out_of_stock),
+                text(view, R.id.tv_quantity_hint));
+        assertEquals("0", text(view, R.id.tv_quantity));
+
+        assertSame(view, adapter.getView(2, view, parent));
+
+        assertEquals("Title 2", text(view, R.id.tv_title));
+        assertEquals("2", text(view, R.id.tv_quantity));
+        assertEquals(context.getString(R.string.in_stock), text(view, R.id.tv_quantity_hint));
+    }
+
+    @Test
+    public void updateBook_showsNewValuesInPlace() {
+        Cursor cursor = adapter.getCursor();
+
+        assertTrue(adapter.updateBook(3, changedBook(3, "New title", 7), 100));
+
+        assertSame(cursor, adapter.getCursor());
+        View view = adapter.getView(2, null, parent);
+        assertEquals("New title", text(view, R.id.tv_title));
+        assertEquals("7", text(view, R.id.tv_quantity));
+    }
+
+    @Test
+    public void updateBook_bookNotInList_isRejected() {
+        Cursor book = changedBook(ROWS + 1, "New book", 1);
+
+        assertFalse(adapter.updateBook(ROWS + 1, book, 100));
+
+        assertTrue(book.isClosed());
+    }
+
+    @Test
+    public void updateBook_idsOfCursorUnknown_isRejected() {
+        adapter.swapCursor(catalog()).close();
+        Cursor book = changedBook(3, "New title", 7);
+
+        assertFalse(adapter.updateBook(3, book, 100));
+
+        assertTrue(book.isClosed());
+    }
+
+    @Test
+    public void swapCursor_keepsBooksChangedAfterRead() {
+        adapter.updateBook(1, changedBook(1, "Changed early", 1), 100);
+        adapter.updateBook(2, changedBook(2, "Changed late", 1), 300);
+
+        Cursor cursor = catalog();
+        adapter.swapCursor(cursor, 200, BookCursorAdapter.sortedIdsOf(cursor)).close();
+
+        assertEquals("Title 0", text(adapter.getView(0, null, parent), R.id.tv_title));
+        assertEquals("Changed late", text(adapter.getView(1, null, parent), R.id.tv_title));
+    }
+
+    @Test
+    public void getView_providerCursor_doesNotAllocateWhenScrolling() {
+        // A catalog this small is returned from the provider's query cache.
+        assertFalse(adapter.getCursor() instanceof SQLiteCursor);
+
+        assertEquals(0, allocationsWhileScrolling());
+    }
+
+    @Test
+    public void getView_databaseCursor_doesNotAllocateWhenScrolling() {
+        // Results too large for the cache are returned as the database's own cursor.
+        database = SQLiteDatabase.openDatabase(
+                context.getDatabasePath(BookDbHelper.DATABASE_NAME).getPath(), null,
+                SQLiteDatabase.OPEN_READONLY);
+        Cursor cursor = database.query(BookEntry.TABLE_NAME, COLUMNS, null, null, null, null,
+                BookEntry._ID);
+        assertTrue(cursor instanceof SQLiteCursor);
+        adapter.swapCursor(cursor).close();
+
+        assertEquals(0, allocationsWhileScrolling());
+    }
+
+    // Return the number of objects allocated by scrolling through the whole catalog, after the
+    // list items exist and their buffers have grown to the longest text.
+    @SuppressWarnings("deprecation")
+    private int allocationsWhileScrolling() {
+        View[] items = new View[VISIBLE_ITEMS];
+        for (int i = 0; i < 3; i++) {
+            scroll(items);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < 10; i++) {
+                scroll(items);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+
+    // Scroll through the whole catalog, recycling the list items like a ListView does.
+    private void scroll(View[] items) {
+        for (int position = 0; position < ROWS; position++) {
+            int item = position % items.length;
+            items[item] = adapter.getView(position, items[item], parent);
+        }
+    }
+
+    // Return the provider's cursor on the test catalog, as the catalog loads it.
+    private Cursor catalog() {
+        return provider.query(BookEntry.CONTENT_URI, COLUMNS, null, null, BookEntry._ID);
+    }
+
+    // Return the values of a book of the test catalog. Every fifth book is out of stock,
+    // starting with the first.
+    private static ContentValues book(int i) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title " + i);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i);
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 999 + i);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, i % 5);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER, "555-0100");
+        return values;
+    }
+
+    // Return a cursor on a single book, as the provider returns it for a changed book.
+    private static Cursor changedBook(long id, String title, int quantity) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{id, title, "Author", 999L, quantity});
+        return cursor;
+    }
+
+    // Return the text of the TextView with the given ID in the list item.
+    private static String text(View view, int id) {
+        return ((TextView) view.findViewById(id)).getText().toString();
+    }
+}
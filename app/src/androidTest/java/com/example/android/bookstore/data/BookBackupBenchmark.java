@@ -0,0 +1,103 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark that times a backup and a restore of a catalog of a million books.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookBackupBenchmark {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = BookBackupBenchmark.class.getSimpleName();
+
+    // Name of the database file used by the benchmark, so the app's inventory is left alone.
+    private static final String DATABASE_NAME = "backup_benchmark.db";
+
+    // Number of books in the test catalog.
+    private static final int NUMBER_OF_BOOKS = 1000000;
+
+    private Context context;
+    private BookDbHelper dbHelper;
+    private File backupFile;
+
+    @Before
+    public void createCatalog() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new BookDbHelper(context, DATABASE_NAME);
+        backupFile = new File(context.getCacheDir(), "backup_benchmark.bak");
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        database.beginTransaction();
+        try {
+            ContentValues supplier = new ContentValues();
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+            long supplierId = database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+            SQLiteStatement insert = database.compileStatement("INSERT INTO "
+                    + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                    + BookEntry.COLUMN_BOOK_AUTHOR + ", " + BookEntry.COLUMN_BOOK_PRICE + ", "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                    + ") VALUES (?, ?, ?, ?, ?);");
+            for (int i = 0; i < NUMBER_OF_BOOKS; i++) {
+                insert.bindString(1, "Title " + i);
+                insert.bindString(2, "Author " + i % 5000);
+                insert.bindLong(3, 999);
+                insert.bindLong(4, 5);
+                insert.bindLong(5, supplierId);
+                insert.executeInsert();
+            }
+            insert.close();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @After
+    public void deleteDatabase() {
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+        backupFile.delete();
+    }
+
+    @Test
+    public void backupAndRestore_millionBooks() throws IOException {
+        long start = System.nanoTime();
+        BookBackup.backup(dbHelper, backupFile);
+        long backupNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        BookBackup.restore(dbHelper, backupFile);
+        long restoreNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, "Backup of " + NUMBER_OF_BOOKS + " books: " + backupNanos / 1000000
+                + " ms, " + backupFile.length() / 1024 + " KiB");
+        Log.i(LOG_TAG, "Restore of " + NUMBER_OF_BOOKS + " books: " + restoreNanos / 1000000
+                + " ms");
+
+        assertEquals(NUMBER_OF_BOOKS, DatabaseUtils.queryNumEntries(
+                dbHelper.getReadableDatabase(), BookEntry.TABLE_NAME));
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks a backup restores the inventory as it was when it was taken,
+ * and that a bad backup never replaces the inventory.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookBackupTest {
+
+    // Name of the database file used by the test, so the app's inventory is left alone.
+    private static final String DATABASE_NAME = "backup_test.db";
+
+    private Context context;
+    private BookDbHelper dbHelper;
+    private File backupFile;
+    private long supplierId;
+
+    @Before
+    public void createDatabase() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        dbHelper = new BookDbHelper(context, DATABASE_NAME);
+        backupFile = new File(context.getCacheDir(), "backup_test.bak");
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+        supplierId = dbHelper.getWritableDatabase().insert(SupplierEntry.TABLE_NAME, null,
+                supplier);
+    }
+
+    @After
+    public void deleteDatabase() {
+        dbHelper.close();
+        context.deleteDatabase(DATABASE_NAME);
+        backupFile.delete();
+    }
+
+    @Test
+    public void restore_bringsBackTheBooksOfTheBackup() throws IOException {
+        insertBook("First");
+        insertBook("Second");
+        BookBackup.backup(dbHelper, backupFile);
+
+        insertBook("Third");
+        dbHelper.getWritableDatabase().delete(BookEntry.TABLE_NAME,
+                BookEntry.COLUMN_BOOK_PRODUCT_NAME + " = ?", new String[]{"First"});
+
+        BookBackup.restore(dbHelper, backupFile);
+
+        assertEquals(2, bookCount());
+        assertEquals(1, DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(),
+                "SELECT COUNT(*) FROM " + BookEntry.VIEW_NAME + " WHERE "
+                        + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " = 'First'", null));
+    }
+
+    @Test
+    public void restore_keepsTheSearchIndex() throws IOException {
+        insertBook("Searchable");
+        BookBackup.backup(dbHelper, backupFile);
+
+        BookBackup.restore(dbHelper, backupFile);
+
+        assertEquals(1, DatabaseUtils.longForQuery(dbHelper.getReadableDatabase(),
+                "SELECT COUNT(*) FROM " + BookEntry.FTS_TABLE_NAME + " WHERE "
+                        + BookEntry.FTS_TABLE_NAME + " MATCH 'search*'", null));
+    }
+
+    @Test
+    public void restore_invalidBackup_leavesDatabaseAlone() throws IOException {
+        insertBook("Kept");
+        FileWriter writer = new FileWriter(backupFile);
+        try {
+            writer.write("This is not a database.");
+        } finally {
+            writer.close();
+        }
+
+        try {
+            BookBackup.restore(dbHelper, backupFile);
+            fail("Restored an invalid backup");
+        } catch (IOException expected) {
+            // The backup is refused before the database is touched.
+        }
+
+        assertEquals(1, bookCount());
+    }
+
+    // Insert a book with the given title.
+    private void insertBook(String title) {
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, title);
+        book.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        book.put(BookEntry.COLUMN_BOOK_QUANTITY, 1);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+        dbHelper.getWritableDatabase().insert(BookEntry.TABLE_NAME, null, book);
+    }
+
+    // Return the number of books in the database.
+    private long bookCount() {
+        return DatabaseUtils.queryNumEntries(dbHelper.getReadableDatabase(),
+                BookEntry.TABLE_NAME);
+    }
+}
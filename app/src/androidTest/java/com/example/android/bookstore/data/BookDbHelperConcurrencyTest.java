@@ -0,0 +1,187 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the catalog can be read while books are being written.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookDbHelperConcurrencyTest {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = BookDbHelperConcurrencyTest.class.getSimpleName();
+
+    // Name of the test database, so the app's inventory is left alone.
+    private static final String TEST_DATABASE_NAME = "concurrency_test.db";
+
+    // Number of books in the test catalog.
+    private static final int NUMBER_OF_BOOKS = 1000;
+
+    // Number of suppliers in the test catalog.
+    private static final int NUMBER_OF_SUPPLIERS = 10;
+
+    // Number of catalog reads timed while the writer is running.
+    private static final int NUMBER_OF_READS = 200;
+
+    private Context context;
+    private BookDbHelper dbHelper;
+
+    @Before
+    public void createCatalog() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(TEST_DATABASE_NAME);
+        dbHelper = new BookDbHelper(context, TEST_DATABASE_NAME);
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < NUMBER_OF_SUPPLIERS; i++) {
+                ContentValues supplier = new ContentValues();
+                supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier " + i);
+                supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+                database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+            }
+            for (int i = 0; i < NUMBER_OF_BOOKS; i++) {
+                database.insert(BookEntry.TABLE_NAME, null, book(i));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @After
+    public void deleteDatabase() {
+        dbHelper.close();
+        context.deleteDatabase(TEST_DATABASE_NAME);
+    }
+
+    @Test
+    public void database_usesWriteAheadLog() {
+        String journalMode = DatabaseUtils.stringForQuery(dbHelper.getReadableDatabase(),
+                "PRAGMA journal_mode;", null);
+
+        assertEquals("wal", journalMode.toLowerCase());
+    }
+
+    @Test
+    public void read_isNotBlockedByOpenWriteTransaction() throws Exception {
+        final SQLiteDatabase database = dbHelper.getWritableDatabase();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readDone = new CountDownLatch(1);
+
+        // Start a write transaction on another thread, and keep it open until the read is done.
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                database.beginTransaction();
+                try {
+                    database.insert(BookEntry.TABLE_NAME, null, book(NUMBER_OF_BOOKS));
+                    writing.countDown();
+                    readDone.await(10, TimeUnit.SECONDS);
+                    database.setTransactionSuccessful();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    database.endTransaction();
+                }
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        // The read must finish while the write is still open, and not see the uncommitted row.
+        long count = DatabaseUtils.queryNumEntries(database, BookEntry.TABLE_NAME);
+        readDone.countDown();
+        writer.join();
+
+        assertEquals(NUMBER_OF_BOOKS, count);
+        assertEquals(NUMBER_OF_BOOKS + 1, DatabaseUtils.queryNumEntries(database,
+                BookEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void readLatency_whileWriterLoopIsRunning() throws Exception {
+        final SQLiteDatabase database = dbHelper.getWritableDatabase();
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        // Keep writing single sales, each in its own transaction, until the reads are done.
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int i = 0;
+                while (running.get()) {
+                    database.execSQL("UPDATE " + BookEntry.TABLE_NAME + " SET "
+                            + BookEntry.COLUMN_BOOK_QUANTITY + " = "
+                            + BookEntry.COLUMN_BOOK_QUANTITY + " + 1 WHERE "
+                            + BookEntry._ID + " = ?", new Object[]{i++ % NUMBER_OF_BOOKS + 1});
+                }
+            }
+        });
+        writer.start();
+
+        // Time the catalog list query while the writer is running.
+        long[] latencies = new long[NUMBER_OF_READS];
+        try {
+            for (int i = 0; i < NUMBER_OF_READS; i++) {
+                long start = System.nanoTime();
+                Cursor cursor = database.query(BookEntry.TABLE_NAME, null, null, null, null,
+                        null, BookEntry.COLUMN_BOOK_PRODUCT_NAME);
+                try {
+                    while (cursor.moveToNext()) {
+                        cursor.getString(1);
+                    }
+                } finally {
+                    cursor.close();
+                }
+                latencies[i] = System.nanoTime() - start;
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+
+        Arrays.sort(latencies);
+        long medianMillis = TimeUnit.NANOSECONDS.toMillis(latencies[NUMBER_OF_READS / 2]);
+        long p99Millis = TimeUnit.NANOSECONDS.toMillis(latencies[NUMBER_OF_READS * 99 / 100]);
+        Log.i(LOG_TAG, "Read latency with a writer running: median " + medianMillis
+                + " ms, p99 " + p99Millis + " ms");
+
+        // Readers don't wait for the writer, so no read should take anywhere near a second.
+        assertTrue("p99 read latency was " + p99Millis + " ms", p99Millis < 1000);
+    }
+
+    // Return the content values for a test book.
+    private static ContentValues book(int i) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title " + i);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + (i % 100));
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, 5);
+        // The suppliers were inserted first, so their IDs start at 1.
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, i % NUMBER_OF_SUPPLIERS + 1);
+        return values;
+    }
+}
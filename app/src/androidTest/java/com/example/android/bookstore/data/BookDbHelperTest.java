@@ -0,0 +1,206 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the catalog queries use the indexes from schema version 2,
+ * and that older databases are upgraded.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookDbHelperTest {
+
+    // Number of books in the test catalog.
+    private static final int NUMBER_OF_BOOKS = 100000;
+
+    // Number of suppliers in the test catalog.
+    private static final int NUMBER_OF_SUPPLIERS = 300;
+
+    // Columns of the catalog list projection.
+    private static final String LIST_COLUMNS = BookEntry._ID + ", "
+            + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+            + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+            + BookEntry.COLUMN_BOOK_PRICE + ", "
+            + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+            + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER;
+
+    private BookDbHelper dbHelper;
+    private SQLiteDatabase database;
+
+    @Before
+    public void createCatalog() {
+        // Use an in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        database = dbHelper.getWritableDatabase();
+
+        SQLiteStatement supplierStatement = database.compileStatement("INSERT INTO "
+                + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") VALUES (?, ?);");
+        SQLiteStatement statement = database.compileStatement("INSERT INTO "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ") VALUES (?, ?, ?, ?, ?);");
+        database.beginTransaction();
+        try {
+            long[] supplierIds = new long[NUMBER_OF_SUPPLIERS];
+            for (int i = 0; i < NUMBER_OF_SUPPLIERS; i++) {
+                supplierStatement.bindString(1, "Supplier " + i);
+                supplierStatement.bindString(2, "555-" + i);
+                supplierIds[i] = supplierStatement.executeInsert();
+            }
+            for (int i = 0; i < NUMBER_OF_BOOKS; i++) {
+                statement.bindString(1, "Title " + ((i * 7919) % NUMBER_OF_BOOKS));
+                statement.bindString(2, "Author " + (i % 5000));
+                statement.bindLong(3, i % 5000);
+                statement.bindLong(4, i % 20);
+                statement.bindLong(5, supplierIds[i % NUMBER_OF_SUPPLIERS]);
+                statement.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            supplierStatement.close();
+            statement.close();
+            database.endTransaction();
+        }
+
+        // Give the query planner statistics for the indexes.
+        database.execSQL("ANALYZE;");
+    }
+
+    @After
+    public void closeDatabase() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void sortByTitle_usesCoveringIndex() {
+        String plan = queryPlan("SELECT " + LIST_COLUMNS + " FROM " + BookEntry.VIEW_NAME
+                + " ORDER BY " + BookEntry.COLUMN_BOOK_PRODUCT_NAME);
+
+        assertTrue(plan, plan.contains("COVERING INDEX " + BookDbHelper.INDEX_BOOKS_PRODUCT_NAME));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void sortByAuthor_usesCoveringIndex() {
+        String plan = queryPlan("SELECT " + LIST_COLUMNS + " FROM " + BookEntry.VIEW_NAME
+                + " ORDER BY " + BookEntry.COLUMN_BOOK_AUTHOR);
+
+        assertTrue(plan, plan.contains("COVERING INDEX " + BookDbHelper.INDEX_BOOKS_AUTHOR));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void filterBySupplier_usesSupplierIndex() {
+        String plan = queryPlan("SELECT " + LIST_COLUMNS + " FROM " + BookEntry.VIEW_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER + " = ?", "Supplier 42");
+
+        assertTrue(plan, plan.contains("INDEX " + BookDbHelper.INDEX_BOOKS_SUPPLIER));
+    }
+
+    @Test
+    public void outOfStock_usesPartialIndex() {
+        // The partial index holds the quantity snapshots, before the sales ledger is taken off.
+        String plan = queryPlan("SELECT " + BookEntry._ID + ", "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_QUANTITY + " = 0"
+                + " ORDER BY " + BookEntry.COLUMN_BOOK_PRODUCT_NAME);
+
+        assertTrue(plan, plan.contains("INDEX " + BookDbHelper.INDEX_BOOKS_OUT_OF_STOCK));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void upgradeFromVersion1_createsIndexes() {
+        // Create a database with the version 1 schema, then upgrade it.
+        SQLiteDatabase oldDatabase = SQLiteDatabase.create(null);
+        try {
+            oldDatabase.execSQL("CREATE TABLE " + BookEntry.TABLE_NAME + " ("
+                    + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " TEXT NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_AUTHOR + " TEXT NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_PRICE + " REAL NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER + " TEXT NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL);");
+            dbHelper.onUpgrade(oldDatabase, 1, 2);
+
+            long indexes = DatabaseUtils.longForQuery(oldDatabase, "SELECT COUNT(*) FROM "
+                    + "sqlite_master WHERE type = 'index' AND name IN (?, ?, ?, ?)", new String[]{
+                    BookDbHelper.INDEX_BOOKS_PRODUCT_NAME, BookDbHelper.INDEX_BOOKS_AUTHOR,
+                    BookDbHelper.INDEX_BOOKS_SUPPLIER, BookDbHelper.INDEX_BOOKS_OUT_OF_STOCK});
+            assertEquals(4, indexes);
+        } finally {
+            oldDatabase.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion4_movesSuppliersToTheirOwnTable() {
+        // Create a database with the version 4 schema and books of two suppliers.
+        SQLiteDatabase oldDatabase = SQLiteDatabase.create(null);
+        try {
+            oldDatabase.execSQL("CREATE TABLE " + BookEntry.TABLE_NAME + " ("
+                    + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " TEXT NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_AUTHOR + " TEXT NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER + " TEXT NOT NULL, "
+                    + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL);");
+            oldDatabase.execSQL("CREATE VIRTUAL TABLE " + BookEntry.FTS_TABLE_NAME
+                    + " USING fts4(content=\"" + BookEntry.TABLE_NAME + "\", "
+                    + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", " + BookEntry.COLUMN_BOOK_AUTHOR
+                    + ", " + BookEntry.COLUMN_BOOK_SUPPLIER + ");");
+            for (int i = 0; i < 3; i++) {
+                oldDatabase.execSQL("INSERT INTO " + BookEntry.TABLE_NAME
+                        + " VALUES (?, ?, ?, ?, ?, ?, ?);", new Object[]{i + 1, "Title " + i,
+                        "Author", 999, 5, i == 0 ? "Penguin" : "Vintage", "555-0100"});
+            }
+            dbHelper.onUpgrade(oldDatabase, 4, 5);
+
+            assertEquals(2, DatabaseUtils.queryNumEntries(oldDatabase,
+                    SupplierEntry.TABLE_NAME));
+            assertEquals(2, DatabaseUtils.queryNumEntries(oldDatabase, BookEntry.VIEW_NAME,
+                    BookEntry.COLUMN_BOOK_SUPPLIER + " = ?", new String[]{"Vintage"}));
+            assertEquals(1, DatabaseUtils.longForQuery(oldDatabase, "SELECT COUNT(*) FROM "
+                    + BookEntry.FTS_TABLE_NAME + " WHERE " + BookEntry.FTS_TABLE_NAME
+                    + " MATCH ?", new String[]{"penguin"}));
+        } finally {
+            oldDatabase.close();
+        }
+    }
+
+    // Return the EXPLAIN QUERY PLAN output for the given query, one step per line.
+    private String queryPlan(String sql, String... selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumnIndex)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the export writes every book once, across page boundaries, in
+ * CSV that reads back to the same values.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookExporterTest {
+
+    private BookDbHelper dbHelper;
+    private SQLiteDatabase database;
+    private long supplierId;
+
+    @Before
+    public void createDatabase() {
+        // Use an in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        database = dbHelper.getWritableDatabase();
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Books, Inc.");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+        supplierId = database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+    }
+
+    @After
+    public void closeDatabase() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void export_writesEveryBookAcrossPages() throws IOException {
+        for (int i = 0; i < 5; i++) {
+            insertBook("Title " + i, 100 + i);
+        }
+
+        CsvReader csv = export(2);
+
+        assertArrayEquals(BookExporter.COLUMNS, csv.readRecord());
+        for (int i = 0; i < 5; i++) {
+            String[] record = csv.readRecord();
+            assertEquals("Title " + i, record[1]);
+            assertEquals(String.valueOf(100 + i), record[3]);
+        }
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void export_quotesFieldsThatNeedIt() throws IOException {
+        insertBook("Say \"Hello\", World\nAgain", 999);
+
+        CsvReader csv = export(10);
+        csv.readRecord();
+        String[] record = csv.readRecord();
+
+        assertEquals("Say \"Hello\", World\nAgain", record[1]);
+        assertEquals("Books, Inc.", record[5]);
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void export_noBooks_writesHeaderOnly() throws IOException {
+        CsvReader csv = export(10);
+
+        assertArrayEquals(BookExporter.COLUMNS, csv.readRecord());
+        assertNull(csv.readRecord());
+    }
+
+    // Export the books with the given page size, and return a reader over the CSV.
+    private CsvReader export(int pageSize) throws IOException {
+        StringWriter out = new StringWriter();
+        new BookExporter(dbHelper, new ReentrantLock(), pageSize).export(out);
+        return new CsvReader(new StringReader(out.toString()));
+    }
+
+    // Insert a book with the given title and price.
+    private void insertBook(String title, int price) {
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, title);
+        book.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        book.put(BookEntry.COLUMN_BOOK_QUANTITY, 1);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+        database.insert(BookEntry.TABLE_NAME, null, book);
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.android.bookstore.data;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the import rejects invalid books without stopping, and reports
+ * where they are in the file.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookImporterTest {
+
+    // Prefix of the database file used by the test, so the app's inventory is left alone.
+    private static final String DATABASE_PREFIX = "importer_test.";
+
+    private Context context;
+    private BookProvider provider;
+    private MockContentResolver contentResolver;
+
+    // Rows of the rejected books, in the order they were reported.
+    private final List<Integer> rejectedRows = new ArrayList<>();
+
+    @Before
+    public void createProvider() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        provider = new BookProvider();
+        provider.attachInfo(context, null);
+        contentResolver = new MockContentResolver();
+        contentResolver.addProvider(BookContract.CONTENT_AUTHORITY, provider);
+    }
+
+    @After
+    public void deleteDatabase() {
+        provider.shutdown();
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void importCsv_reportsTheLineOfRejectedBooks() throws IOException {
+        BookImporter.Result result = importBooks(BookImporter.Format.CSV,
+                "product_name,author,price,quantity,supplier,supplier_phone_number\n"
+                        + "\"Two\nlines\",Author,999,1,Supplier,555-0100\n"
+                        + "\n"
+                        + "Bad price,Author,abc,1,Supplier,555-0100\n");
+
+        assertEquals(1, result.rowsImported);
+        assertEquals(1, result.rowsRejected);
+        assertEquals(5, (int) rejectedRows.get(0));
+    }
+
+    @Test
+    public void importJson_rejectsValuesThatArentTextOrNumbers() throws IOException {
+        BookImporter.Result result = importBooks(BookImporter.Format.JSON, "["
+                + "{\"product_name\":true,\"author\":\"Author\",\"price\":999,\"quantity\":1,"
+                + "\"supplier\":\"Supplier\",\"supplier_phone_number\":\"555-0100\"},"
+                + "{\"product_name\":\"Title\",\"author\":\"Author\",\"price\":{\"cents\":1},"
+                + "\"quantity\":1,\"supplier\":\"Supplier\",\"supplier_phone_number\":\"555-0100\"},"
+                + "{\"product_name\":\"Title\",\"author\":\"Author\",\"price\":999,\"quantity\":1,"
+                + "\"supplier\":\"Supplier\",\"supplier_phone_number\":\"555-0100\"}]");
+
+        assertEquals(3, result.rowsRead);
+        assertEquals(1, result.rowsImported);
+        assertEquals(2, result.rowsRejected);
+        assertEquals(1, (int) rejectedRows.get(0));
+        assertEquals(2, (int) rejectedRows.get(1));
+    }
+
+    // Import the books of the given file, and keep the rows of the rejected books.
+    private BookImporter.Result importBooks(BookImporter.Format format, String file)
+            throws IOException {
+        BookImporter importer = new BookImporter(contentResolver,
+                BookImporter.DEFAULT_BATCH_SIZE, new BookImporter.Listener() {
+            @Override
+            public void onProgress(int rowsRead, int rowsImported, int rowsRejected) {
+            }
+
+            @Override
+            public void onRowRejected(int row, String reason) {
+                rejectedRows.add(row);
+            }
+        });
+        return importer.importBooks(new ByteArrayInputStream(
+                file.getBytes(Charset.forName("UTF-8"))), format);
+    }
+}
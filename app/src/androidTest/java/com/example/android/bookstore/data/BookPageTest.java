@@ -0,0 +1,218 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the books can be read one page at a time, in every sort order
+ * a page supports.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookPageTest {
+
+    // Prefix of the database file used by the test, so the app's inventory is left alone.
+    private static final String DATABASE_PREFIX = "page_test.";
+
+    private Context context;
+    private BookProvider provider;
+
+    // IDs of the test books, in the order they were inserted.
+    private final List<Long> ids = new ArrayList<>();
+
+    @Before
+    public void createProvider() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        provider = new BookProvider();
+        provider.attachInfo(context, null);
+
+        // Prices and quantities run in another order than the IDs, and two books share each
+        // quantity, so paging has to continue within the same value.
+        long[] prices = {1500, 999, 2500, 500, 1200};
+        int[] quantities = {9, 5, 7, 5, 12};
+        for (int i = 0; i < prices.length; i++) {
+            ids.add(ContentUris.parseId(provider.insert(BookEntry.CONTENT_URI,
+                    book("Title " + i, prices[i], quantities[i]))));
+        }
+
+        // A sale lowers the quantity the view computes from the ledger: 12 becomes 9.
+        sell(ids.get(4), 3);
+    }
+
+    @After
+    public void deleteDatabase() {
+        provider.shutdown();
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void firstPage_withoutSortOrder_returnsTheFirstBooksById() {
+        try (Cursor cursor = page(null, 2, null, null)) {
+            assertEquals(Arrays.asList(ids.get(0), ids.get(1)), idsOf(cursor));
+        }
+    }
+
+    @Test
+    public void nextPage_withoutSortOrder_startsAfterTheGivenBook() {
+        try (Cursor cursor = page(null, 2, null, String.valueOf(ids.get(1)))) {
+            assertEquals(Arrays.asList(ids.get(2), ids.get(3)), idsOf(cursor));
+        }
+    }
+
+    @Test
+    public void pages_sortedByIdDescending_returnEveryBookOnce() {
+        assertEquals(Arrays.asList(ids.get(4), ids.get(3), ids.get(2), ids.get(1), ids.get(0)),
+                readAllPages(BookEntry._ID + " DESC", 2));
+    }
+
+    @Test
+    public void pages_sortedByTitle_returnEveryBookOnce() {
+        assertEquals(ids, readAllPages(BookEntry.COLUMN_BOOK_PRODUCT_NAME, 3));
+    }
+
+    @Test
+    public void pages_withTies_continueWithinTheSameValue() {
+        // Every book has the same supplier, so only the _id orders them.
+        assertEquals(ids, readAllPages(BookEntry.COLUMN_BOOK_SUPPLIER, 1));
+    }
+
+    @Test
+    public void pages_sortedByQuantityDescending_returnEveryBookOnce() {
+        assertEquals(Arrays.asList(ids.get(4), ids.get(0), ids.get(2), ids.get(3), ids.get(1)),
+                readAllPages(BookEntry.COLUMN_BOOK_QUANTITY + " desc", 2));
+    }
+
+    @Test
+    public void pages_withSelection_onlyReturnMatchingBooks() {
+        try (Cursor cursor = provider.query(BookEntry.CONTENT_URI.buildUpon()
+                        .appendQueryParameter(BookEntry.QUERY_PARAMETER_PAGE_SIZE, "2")
+                        .appendQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_VALUE, "5")
+                        .appendQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_ID,
+                                String.valueOf(ids.get(1)))
+                        .build(), null, BookEntry.COLUMN_BOOK_PRICE + " < ?",
+                new String[]{"1400"}, BookEntry.COLUMN_BOOK_QUANTITY)) {
+            assertEquals(Arrays.asList(ids.get(3), ids.get(4)), idsOf(cursor));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void page_sortedByUnsupportedColumn_isRejected() {
+        page(BookEntry.COLUMN_BOOK_VERSION, 2, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void page_sortedByTwoColumns_isRejected() {
+        page(BookEntry.COLUMN_BOOK_PRICE + ", " + BookEntry._ID, 2, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void page_withInvalidPageSize_isRejected() {
+        page(null, 0, null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nextPage_withoutSortValue_isRejected() {
+        page(BookEntry.COLUMN_BOOK_PRICE, 2, null, String.valueOf(ids.get(0)));
+    }
+
+    @Test
+    public void pages_sortedByQuantity_returnEveryBookOnce() {
+        assertEquals(Arrays.asList(ids.get(1), ids.get(3), ids.get(2), ids.get(0), ids.get(4)),
+                readAllPages(BookEntry.COLUMN_BOOK_QUANTITY, 2));
+    }
+
+    @Test
+    public void pages_sortedByPrice_returnEveryBookOnce() {
+        assertEquals(Arrays.asList(ids.get(3), ids.get(1), ids.get(4), ids.get(0), ids.get(2)),
+                readAllPages(BookEntry.COLUMN_BOOK_PRICE, 2));
+    }
+
+    // Read all books one page at a time, sorted by the given column, and return their IDs in
+    // the order they were read.
+    private List<Long> readAllPages(String sortOrder, int pageSize) {
+        String sortColumn = sortOrder == null ? BookEntry._ID : sortOrder.split(" ")[0];
+        List<Long> pagedIds = new ArrayList<>();
+        String afterValue = null;
+        String afterId = null;
+        while (true) {
+            try (Cursor cursor = page(sortOrder, pageSize, afterValue, afterId)) {
+                if (!cursor.moveToFirst()) {
+                    return pagedIds;
+                }
+                pagedIds.addAll(idsOf(cursor));
+
+                // Continue after the last book of this page.
+                cursor.moveToLast();
+                afterValue = cursor.getString(cursor.getColumnIndex(sortColumn));
+                afterId = cursor.getString(cursor.getColumnIndex(BookEntry._ID));
+            }
+            assertTrue("Paging doesn't end", pagedIds.size() <= ids.size());
+        }
+    }
+
+    // Return the IDs of the books of the cursor, in its order.
+    private static List<Long> idsOf(Cursor cursor) {
+        List<Long> cursorIds = new ArrayList<>();
+        int idColumnIndex = cursor.getColumnIndex(BookEntry._ID);
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            cursorIds.add(cursor.getLong(idColumnIndex));
+        }
+        return cursorIds;
+    }
+
+    // Return a page of books in the given sort order, or by _id if it is null, after the given
+    // book, or the first page if afterId is null.
+    private Cursor page(String sortOrder, int pageSize, String afterValue, String afterId) {
+        Uri.Builder uri = BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookEntry.QUERY_PARAMETER_PAGE_SIZE,
+                        String.valueOf(pageSize));
+        if (afterId != null) {
+            uri.appendQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_ID, afterId);
+        }
+        if (afterValue != null) {
+            uri.appendQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_VALUE, afterValue);
+        }
+        return provider.query(uri.build(), null, null, null, sortOrder);
+    }
+
+    // Sell the given number of copies of the book.
+    private void sell(long id, int amount) {
+        Bundle extras = new Bundle();
+        extras.putInt(BookContract.EXTRA_AMOUNT, amount);
+        assertTrue(provider.call(BookContract.METHOD_SELL, String.valueOf(id), extras)
+                .getBoolean(BookContract.EXTRA_SOLD));
+    }
+
+    // Return the values of a book with the given title, price and quantity.
+    private static ContentValues book(String title, long price, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, title);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, quantity);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER, "555-0100");
+        return values;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark of the CRUD operations of {@link BookProvider} on catalogs of growing
+ * size. Every operation is timed one call at a time, and the results are written as one JSON
+ * object per operation and catalog size, so runs can be compared.
+ * <p>
+ * By default it only runs on a small catalog, as a check that the benchmark itself works. To
+ * measure, run
+ * {@code ./gradlew connectedAndroidTest
+ * -Pandroid.testInstrumentationRunnerArguments.class=com.example.android.bookstore.data.BookProviderBenchmark
+ * -Pandroid.testInstrumentationRunnerArguments.benchmarkSizes=1000,100000,1000000}
+ * and pull BookProviderBenchmark.json from the app's external files directory. The lines are
+ * logged as well.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderBenchmark {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = BookProviderBenchmark.class.getSimpleName();
+
+    // Prefix of the database file used by the benchmark, so the app's inventory is left alone.
+    private static final String DATABASE_PREFIX = "benchmark.";
+
+    // Name of the file the results are written to.
+    private static final String OUTPUT_FILE_NAME = "BookProviderBenchmark.json";
+
+    // Catalog sizes measured when none are given.
+    private static final String DEFAULT_SIZES = "1000";
+
+    // Number of books inserted at once while the catalog is filled.
+    private static final int FILL_BATCH_SIZE = 10000;
+
+    // Number of timed calls of each operation, after as many untimed ones to warm up.
+    private static final int OPERATIONS = 1000;
+
+    // Number of timed reads of the whole catalog.
+    private static final int CATALOG_READS = 5;
+
+    // Copies of every book in stock, enough for all the sales.
+    private static final int QUANTITY = 10000;
+
+    @Test
+    public void crud_atEveryCatalogSize() throws IOException {
+        Context context = new RenamingDelegatingContext(
+                InstrumentationRegistry.getTargetContext(), DATABASE_PREFIX);
+        File outputFile = new File(InstrumentationRegistry.getTargetContext()
+                .getExternalFilesDir(null), OUTPUT_FILE_NAME);
+        String sizes = InstrumentationRegistry.getArguments().getString("benchmarkSizes",
+                DEFAULT_SIZES);
+
+        try (PrintWriter writer = new PrintWriter(new FileWriter(outputFile))) {
+            for (String size : sizes.split(",")) {
+                measure(context, Integer.parseInt(size.trim()), writer);
+            }
+        }
+    }
+
+    // Measure every operation on a new catalog of the given size, and write the results.
+    private static void measure(Context context, int books, PrintWriter writer) {
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        BookProvider provider = new BookProvider();
+        provider.attachInfo(context, null);
+        try {
+            fillCatalog(provider, books);
+            Random random = new Random(books);
+
+            // Insert new books, and keep their URIs to delete them again at the end, so the
+            // catalog keeps its size.
+            Uri[] inserted = new Uri[OPERATIONS];
+            for (int i = 0; i < OPERATIONS; i++) {
+                provider.delete(provider.insert(BookEntry.CONTENT_URI, book(books + i)),
+                        null, null);
+            }
+            long[] nanos = new long[OPERATIONS];
+            for (int i = 0; i < OPERATIONS; i++) {
+                ContentValues values = book(books + i);
+                long start = System.nanoTime();
+                inserted[i] = provider.insert(BookEntry.CONTENT_URI, values);
+                nanos[i] = System.nanoTime() - start;
+                assertNotNull(inserted[i]);
+            }
+            report(writer, "insert", books, nanos);
+
+            // Read single books by ID, from all over the catalog.
+            for (int warmUp = 0; warmUp <= 1; warmUp++) {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    Uri uri = ContentUris.withAppendedId(BookEntry.CONTENT_URI,
+                            1 + random.nextInt(books));
+                    long start = System.nanoTime();
+                    try (Cursor cursor = provider.query(uri, null, null, null, null)) {
+                        assertTrue(cursor.moveToFirst());
+                    }
+                    nanos[i] = System.nanoTime() - start;
+                }
+            }
+            report(writer, "query_by_id", books, nanos);
+
+            // Read the whole catalog the way the catalog screen does. A sale before every read
+            // keeps it from being answered by the provider's cache.
+            long[] catalogNanos = new long[CATALOG_READS];
+            for (int i = 0; i < CATALOG_READS; i++) {
+                sell(provider, 1 + random.nextInt(books));
+                long start = System.nanoTime();
+                try (Cursor cursor = provider.query(BookEntry.CONTENT_URI, null, null, null,
+                        null)) {
+                    int rows = 0;
+                    while (cursor.moveToNext()) {
+                        rows++;
+                    }
+                    assertEquals(books + OPERATIONS, rows);
+                }
+                catalogNanos[i] = System.nanoTime() - start;
+            }
+            report(writer, "query_catalog", books, catalogNanos);
+
+            // Sell single copies of books from all over the catalog.
+            for (int warmUp = 0; warmUp <= 1; warmUp++) {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    long id = 1 + random.nextInt(books);
+                    long start = System.nanoTime();
+                    sell(provider, id);
+                    nanos[i] = System.nanoTime() - start;
+                }
+            }
+            report(writer, "sale", books, nanos);
+
+            // Delete the books inserted above, one at a time.
+            for (int i = 0; i < OPERATIONS; i++) {
+                long start = System.nanoTime();
+                assertEquals(1, provider.delete(inserted[i], null, null));
+                nanos[i] = System.nanoTime() - start;
+            }
+            report(writer, "delete", books, nanos);
+        } finally {
+            provider.shutdown();
+            context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        }
+    }
+
+    // Fill the catalog with the given number of books, in batches.
+    private static void fillCatalog(BookProvider provider, int books) {
+        for (int first = 0; first < books; first += FILL_BATCH_SIZE) {
+            ContentValues[] batch = new ContentValues[Math.min(FILL_BATCH_SIZE, books - first)];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = book(first + i);
+            }
+            assertEquals(batch.length, provider.bulkInsert(BookEntry.CONTENT_URI, batch));
+        }
+    }
+
+    // Return the values of the book with the given number. Books share a few suppliers, as
+    // they do in a real inventory.
+    private static ContentValues book(int number) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title " + number);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + number % 5000);
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 999 + number % 1000);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, QUANTITY);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Supplier " + number % 20);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER, "555-01" + number % 20);
+        return values;
+    }
+
+    // Sell one copy of the book with the given ID.
+    private static void sell(BookProvider provider, long id) {
+        assertTrue(provider.call(BookContract.METHOD_SELL, String.valueOf(id), null)
+                .getBoolean(BookContract.EXTRA_SOLD));
+    }
+
+    // Write the latencies of an operation as a line of JSON, and log it as well.
+    private static void report(PrintWriter writer, String operation, int books, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long value : sorted) {
+            total += value;
+        }
+        String line = String.format(Locale.US, "{\"operation\":\"%s\",\"books\":%d,"
+                        + "\"calls\":%d,\"mean_nanos\":%d,\"p50_nanos\":%d,\"p90_nanos\":%d,"
+                        + "\"p99_nanos\":%d,\"max_nanos\":%d,\"ops_per_second\":%.1f}",
+                operation, books, sorted.length, total / sorted.length,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                sorted[sorted.length - 1], sorted.length * 1e9 / total);
+        writer.println(line);
+        writer.flush();
+        Log.i(LOG_TAG, line);
+    }
+
+    // Return a percentile of the sorted latencies, by the nearest rank.
+    private static long percentile(long[] sorted, int percentile) {
+        int rank = (int) Math.ceil(sorted.length * percentile / 100.0);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test of the writes of {@link BookProvider} that span more than one table, of
+ * replacing its database while it is being used, and of its slow query log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookProviderTest {
+
+    // Prefix of the database file used by the test, so the app's inventory is left alone.
+    private static final String DATABASE_PREFIX = "provider_test.";
+
+    private Context context;
+    private BookProvider provider;
+
+    @Before
+    public void createProvider() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        provider = new BookProvider();
+        provider.attachInfo(context, null);
+    }
+
+    @After
+    public void deleteDatabase() {
+        provider.shutdown();
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        backupFile().delete();
+    }
+
+    @Test
+    public void bulkInsert_rejectedRow_leavesNoSupplierBehind() {
+        ContentValues withoutPrice = book("Rejected", "New supplier");
+        withoutPrice.remove(BookEntry.COLUMN_BOOK_PRICE);
+
+        assertEquals(1, provider.bulkInsert(BookEntry.CONTENT_URI,
+                new ContentValues[]{book("Inserted", "Supplier"), withoutPrice}));
+
+        assertEquals(1, count(BookEntry.CONTENT_URI));
+        assertEquals(1, count(SupplierEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void insert_rejectedRow_leavesNoSupplierBehind() {
+        ContentValues withoutQuantity = book("Rejected", "New supplier");
+        withoutQuantity.remove(BookEntry.COLUMN_BOOK_QUANTITY);
+
+        assertNull(provider.insert(BookEntry.CONTENT_URI, withoutQuantity));
+
+        assertEquals(0, count(SupplierEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void restore_replacesTheBooks_andWritesCarryOn() {
+        provider.insert(BookEntry.CONTENT_URI, book("Backed up", "Supplier"));
+        provider.call(BookContract.METHOD_BACKUP, backupFile().getPath(), null);
+        provider.insert(BookEntry.CONTENT_URI, book("Not backed up", "Supplier"));
+
+        provider.call(BookContract.METHOD_RESTORE, backupFile().getPath(), null);
+
+        assertEquals(1, count(BookEntry.CONTENT_URI));
+        assertNotNull(provider.insert(BookEntry.CONTENT_URI, book("After", "Supplier")));
+        assertEquals(2, count(BookEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void restore_whileOtherThreadsUseTheDatabase_waitsForThem() throws Exception {
+        provider.insert(BookEntry.CONTENT_URI, book("Backed up", "Supplier"));
+        provider.call(BookContract.METHOD_BACKUP, backupFile().getPath(), null);
+
+        // Keep another thread reading and writing while the database is restored.
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread user = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        provider.insert(BookEntry.CONTENT_URI, book("Title", "Supplier"));
+                        count(BookEntry.CONTENT_URI);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        user.start();
+        for (int i = 0; i < 5; i++) {
+            provider.call(BookContract.METHOD_RESTORE, backupFile().getPath(), null);
+        }
+        done.set(true);
+        user.join();
+
+        assertNull(failure.get());
+    }
+
+    @Test
+    public void slowQuery_isLoggedWithTheSqlAndArgumentsThatRan() {
+        provider.insert(BookEntry.CONTENT_URI, book("Title", "Supplier"));
+        provider.call(BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD, "0", null);
+
+        count(BookEntry.CONTENT_SEARCH_URI.buildUpon()
+                .appendQueryParameter(BookEntry.QUERY_PARAMETER_SEARCH, "tit").build());
+
+        ArrayList<Bundle> queries = provider.call(BookContract.METHOD_SLOW_QUERIES, null, null)
+                .getParcelableArrayList(BookContract.EXTRA_SLOW_QUERIES);
+        Bundle query = queries.get(0);
+        assertTrue(query.getString(BookContract.EXTRA_SQL).startsWith("SELECT"));
+        assertTrue(query.getString(BookContract.EXTRA_SQL).contains("MATCH"));
+        assertEquals("tit*", query.getStringArray(BookContract.EXTRA_ARGS)[0]);
+        assertNotNull(query.getString(BookContract.EXTRA_QUERY_PLAN));
+    }
+
+    // Return the file the tests back the database up to.
+    private File backupFile() {
+        return new File(context.getCacheDir(), "provider_test.bak");
+    }
+
+    // Return the values of a book with the given title and supplier.
+    private static ContentValues book(String title, String supplier) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, title);
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, supplier);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER, "555-0100");
+        return values;
+    }
+
+    // Return the number of rows at the given content URI.
+    private int count(Uri uri) {
+        try (Cursor cursor = provider.query(uri, null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the single book cache serves projections of cached rows, and
+ * never keeps a row that was read before an invalidation.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookRowCacheTest {
+
+    private static final String[] COLUMNS = new String[]{BookEntry._ID,
+            BookEntry.COLUMN_BOOK_PRODUCT_NAME, BookEntry.COLUMN_BOOK_QUANTITY};
+
+    @Test
+    public void get_servesProjectionOfCachedRow() {
+        BookRowCache cache = new BookRowCache(10);
+        cache.put(1, row(1, "Title", 5, cache.generation()));
+
+        Cursor cursor = cache.get(1, new String[]{BookEntry.COLUMN_BOOK_QUANTITY});
+        try {
+            assertNotNull(cursor);
+            assertEquals(1, cursor.getColumnCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(5, cursor.getInt(0));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void get_unknownColumn_isNotServed() {
+        BookRowCache cache = new BookRowCache(10);
+        cache.put(1, row(1, "Title", 5, cache.generation()));
+
+        assertNull(cache.get(1, new String[]{"COUNT(*)"}));
+    }
+
+    @Test
+    public void invalidate_removesRow() {
+        BookRowCache cache = new BookRowCache(10);
+        cache.put(1, row(1, "Title", 5, cache.generation()));
+
+        cache.invalidate(1);
+
+        assertNull(cache.get(1, null));
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void put_rowReadBeforeInvalidation_isNotCached() {
+        BookRowCache cache = new BookRowCache(10);
+        long generation = cache.generation();
+
+        // A write invalidates the book while the old row is being read.
+        cache.invalidate(1);
+        cache.put(1, row(1, "Old title", 5, generation));
+
+        assertNull(cache.get(1, null));
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyUsedRow() {
+        BookRowCache cache = new BookRowCache(2);
+        cache.put(1, row(1, "First", 1, cache.generation()));
+        cache.put(2, row(2, "Second", 2, cache.generation()));
+        cache.get(1, null).close();
+
+        cache.put(3, row(3, "Third", 3, cache.generation()));
+
+        assertNull(cache.get(2, null));
+        assertNotNull(cache.get(1, null));
+    }
+
+    // Return the cached row of a book.
+    private static CachedRows row(long id, String title, int quantity, long generation) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{id, title, quantity});
+        return CachedRows.read(cursor, generation);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks a sale never sells more copies of a book than are in stock.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookSaleTest {
+
+    // Prefix of the database file used by the test, so the app's inventory is left alone.
+    private static final String DATABASE_PREFIX = "sale_test.";
+
+    // Copies of the test book in stock before any sale.
+    private static final int STOCK = 10;
+
+    private Context context;
+    private BookProvider provider;
+
+    // ID of the test book.
+    private long id;
+
+    @Before
+    public void createProvider() {
+        context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(),
+                DATABASE_PREFIX);
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+        provider = new BookProvider();
+        provider.attachInfo(context, null);
+
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title");
+        values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        values.put(BookEntry.COLUMN_BOOK_PRICE, 1000);
+        values.put(BookEntry.COLUMN_BOOK_QUANTITY, STOCK);
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER, "Supplier");
+        values.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER, "555-0100");
+        id = ContentUris.parseId(provider.insert(BookEntry.CONTENT_URI, values));
+    }
+
+    @After
+    public void deleteDatabase() {
+        provider.shutdown();
+        context.deleteDatabase(BookDbHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void sell_withinStock_lowersTheQuantity() {
+        Bundle result = sell(id, 3);
+
+        assertTrue(result.getBoolean(BookContract.EXTRA_SOLD));
+        assertEquals(STOCK - 3, result.getLong(BookContract.EXTRA_QUANTITY));
+        assertEquals(STOCK - 3, quantity());
+    }
+
+    @Test
+    public void sell_moreThanInStock_leavesTheStockUnchanged() {
+        Bundle result = sell(id, STOCK + 1);
+
+        assertFalse(result.getBoolean(BookContract.EXTRA_SOLD));
+        assertEquals(STOCK, result.getLong(BookContract.EXTRA_QUANTITY));
+        assertEquals(STOCK, quantity());
+    }
+
+    @Test
+    public void sell_unknownBook_returnsNoQuantity() {
+        Bundle result = sell(id + 1, 1);
+
+        assertFalse(result.getBoolean(BookContract.EXTRA_SOLD));
+        assertEquals(-1, result.getLong(BookContract.EXTRA_QUANTITY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sell_withInvalidAmount_isRejected() {
+        sell(id, 0);
+    }
+
+    @Test
+    public void sell_onTwoThreads_neverSellsMoreThanInStock() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger soldCount = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable seller = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    // Together the threads try to sell twice the stock.
+                    for (int i = 0; i < STOCK; i++) {
+                        Bundle result = sell(id, 1);
+                        if (result.getBoolean(BookContract.EXTRA_SOLD)) {
+                            soldCount.incrementAndGet();
+                        }
+                        if (result.getLong(BookContract.EXTRA_QUANTITY) < 0) {
+                            throw new AssertionError("Stock dropped below zero");
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+        Thread first = new Thread(seller);
+        Thread second = new Thread(seller);
+        first.start();
+        second.start();
+        start.countDown();
+        first.join();
+        second.join();
+
+        assertNull(failure.get());
+        assertEquals(STOCK, soldCount.get());
+        assertEquals(0, quantity());
+    }
+
+    // Sell the given number of copies of the book with the given ID.
+    private Bundle sell(long bookId, int amount) {
+        Bundle extras = new Bundle();
+        extras.putInt(BookContract.EXTRA_AMOUNT, amount);
+        return provider.call(BookContract.METHOD_SELL, String.valueOf(bookId), extras);
+    }
+
+    // Return the quantity of the test book the provider reads.
+    private long quantity() {
+        try (Cursor cursor = provider.query(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id),
+                new String[]{BookEntry.COLUMN_BOOK_QUANTITY}, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+}
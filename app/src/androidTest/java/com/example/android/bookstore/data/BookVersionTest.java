@@ -0,0 +1,123 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SaleEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the version of a book goes up with every change of the book,
+ * its sales and its supplier, and stays the same when the sales are compacted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BookVersionTest {
+
+    private BookDbHelper dbHelper;
+    private SQLiteDatabase database;
+    private long supplierId;
+    private long bookId;
+
+    @Before
+    public void createDatabase() {
+        // Use an in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        database = dbHelper.getWritableDatabase();
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+        supplierId = database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title");
+        book.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        book.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+        bookId = database.insert(BookEntry.TABLE_NAME, null, book);
+    }
+
+    @After
+    public void closeDatabase() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void newBook_hasVersionZero() {
+        assertEquals(0, version());
+    }
+
+    @Test
+    public void update_raisesVersion() {
+        updatePrice(1999);
+        updatePrice(2999);
+
+        assertEquals(2, version());
+    }
+
+    @Test
+    public void updateThatChangesNothing_keepsVersion() {
+        updatePrice(999);
+
+        assertEquals(0, version());
+    }
+
+    @Test
+    public void sale_raisesVersion_andCompactionKeepsIt() {
+        sell();
+        sell();
+        assertEquals(2, version());
+
+        SalesCompactor.compact(database);
+
+        assertEquals(2, version());
+        assertEquals(8, DatabaseUtils.longForQuery(database, "SELECT "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " FROM " + BookEntry.VIEW_NAME, null));
+    }
+
+    @Test
+    public void supplierChange_raisesVersionOfItsBooks() {
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "New name");
+        database.update(SupplierEntry.TABLE_NAME, supplier, SupplierEntry._ID + " = ?",
+                new String[]{String.valueOf(supplierId)});
+
+        assertEquals(1, version());
+    }
+
+    // Set the price of the book.
+    private void updatePrice(int price) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+    }
+
+    // Add a sale of one copy of the book to the ledger.
+    private void sell() {
+        ContentValues sale = new ContentValues();
+        sale.put(SaleEntry.COLUMN_SALE_BOOK_ID, bookId);
+        sale.put(SaleEntry.COLUMN_SALE_AMOUNT, 1);
+        sale.put(SaleEntry.COLUMN_SALE_TIME, System.currentTimeMillis());
+        database.insert(SaleEntry.TABLE_NAME, null, sale);
+    }
+
+    // Return the current version of the book, as the view shows it.
+    private long version() {
+        return DatabaseUtils.longForQuery(database, "SELECT " + BookEntry.COLUMN_BOOK_VERSION
+                + " FROM " + BookEntry.VIEW_NAME + " WHERE " + BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.android.bookstore.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks cached rows return the same values and types as the cursor
+ * they were read from.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CachedRowsTest {
+
+    @Test
+    public void newCursor_returnsValuesOfEveryType() {
+        MatrixCursor source = new MatrixCursor(new String[]{"id", "mixed", "text"});
+        source.addRow(new Object[]{1L, 5L, "First"});
+        source.addRow(new Object[]{null, "five", null});
+        source.addRow(new Object[]{3L, 2.5, "Third"});
+
+        Cursor cursor = CachedRows.read(source, 0).newCursor();
+        try {
+            assertEquals(3, cursor.getCount());
+
+            assertTrue(cursor.moveToNext());
+            assertEquals(1, cursor.getLong(0));
+            assertEquals(Cursor.FIELD_TYPE_INTEGER, cursor.getType(1));
+            assertEquals(5, cursor.getInt(1));
+            assertEquals("First", cursor.getString(2));
+
+            assertTrue(cursor.moveToNext());
+            assertTrue(cursor.isNull(0));
+            assertNull(cursor.getString(0));
+            assertEquals("five", cursor.getString(1));
+            assertTrue(cursor.isNull(2));
+
+            assertTrue(cursor.moveToNext());
+            assertEquals("3", cursor.getString(0));
+            assertEquals(Cursor.FIELD_TYPE_FLOAT, cursor.getType(1));
+            assertEquals(2.5, cursor.getDouble(1), 0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void copyStringToBuffer_copiesTextAndIntegersIntoTheSameBuffer() {
+        MatrixCursor source = new MatrixCursor(new String[]{"id", "mixed", "text"});
+        source.addRow(new Object[]{Long.MIN_VALUE, -5L, "First"});
+        source.addRow(new Object[]{0L, "five", null});
+        source.addRow(new Object[]{null, 2.5, "Third"});
+
+        Cursor cursor = CachedRows.read(source, 0).newCursor();
+        CharArrayBuffer buffer = new CharArrayBuffer(64);
+        char[] data = buffer.data;
+        try {
+            assertTrue(cursor.moveToNext());
+            assertEquals(String.valueOf(Long.MIN_VALUE), copy(cursor, 0, buffer));
+            assertEquals("-5", copy(cursor, 1, buffer));
+            assertEquals("First", copy(cursor, 2, buffer));
+
+            assertTrue(cursor.moveToNext());
+            assertEquals("0", copy(cursor, 0, buffer));
+            assertEquals("five", copy(cursor, 1, buffer));
+            assertEquals("", copy(cursor, 2, buffer));
+
+            assertTrue(cursor.moveToNext());
+            assertEquals("", copy(cursor, 0, buffer));
+            assertEquals("Third", copy(cursor, 2, buffer));
+
+            // Values that fit are copied into the characters the buffer already has.
+            assertSame(data, buffer.data);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void estimateBytes_growsWithTheRows() {
+        MatrixCursor small = new MatrixCursor(new String[]{"id", "text"});
+        MatrixCursor large = new MatrixCursor(new String[]{"id", "text"});
+        for (int i = 0; i < 100; i++) {
+            large.addRow(new Object[]{i, "Title " + i});
+        }
+
+        assertTrue(CachedRows.read(large, 0).estimateBytes()
+                > CachedRows.read(small, 0).estimateBytes() + 100 * 8);
+    }
+
+    // Copy the value of the column into the buffer, and return the copied text.
+    private static String copy(Cursor cursor, int column, CharArrayBuffer buffer) {
+        cursor.copyStringToBuffer(column, buffer);
+        return new String(buffer.data, 0, buffer.sizeCopied);
+    }
+}
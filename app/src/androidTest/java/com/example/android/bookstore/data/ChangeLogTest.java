@@ -0,0 +1,242 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.ChangeEntry;
+import com.example.android.bookstore.data.BookContract.SaleEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the triggers log every change of a book, that compacting
+ * the change log keeps the last change of every book, and that deleting all books makes the
+ * readers of the change log start over.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ChangeLogTest {
+
+    private BookDbHelper dbHelper;
+    private SQLiteDatabase database;
+    private long supplierId;
+
+    @Before
+    public void createDatabase() {
+        // Use an in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        database = dbHelper.getWritableDatabase();
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+        supplierId = database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+    }
+
+    @After
+    public void closeDatabase() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void writes_areLoggedInOrder() {
+        long bookId = insertBook("Title");
+        updatePrice(bookId, 1999);
+        sell(bookId);
+        database.delete(BookEntry.TABLE_NAME, BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+
+        assertEquals("insert,update,update,delete", operations(bookId));
+    }
+
+    @Test
+    public void updateThatChangesNothing_isNotLogged() {
+        long bookId = insertBook("Title");
+        updatePrice(bookId, 999);
+
+        assertEquals("insert", operations(bookId));
+    }
+
+    @Test
+    public void compactingSales_isNotLogged() {
+        long bookId = insertBook("Title");
+        sell(bookId);
+
+        SalesCompactor.compact(database);
+
+        assertEquals("insert,update", operations(bookId));
+    }
+
+    @Test
+    public void supplierChange_isLoggedForItsBooks() {
+        long first = insertBook("First");
+        long second = insertBook("Second");
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "New name");
+        database.update(SupplierEntry.TABLE_NAME, supplier, null, null);
+
+        assertEquals("insert,update", operations(first));
+        assertEquals("insert,update", operations(second));
+    }
+
+    @Test
+    public void compact_keepsLastChangeOfEveryBook() {
+        long first = insertBook("First");
+        long second = insertBook("Second");
+        updatePrice(first, 1999);
+
+        ChangeLogCompactor.compact(database, 100);
+
+        assertEquals("update", operations(first));
+        assertEquals("insert", operations(second));
+        assertEquals(0, horizon());
+    }
+
+    @Test
+    public void compact_tooManyChanges_movesHorizon() {
+        for (int i = 0; i < 5; i++) {
+            insertBook("Title " + i);
+        }
+
+        ChangeLogCompactor.compact(database, 2);
+
+        assertEquals(2, DatabaseUtils.queryNumEntries(database, ChangeEntry.TABLE_NAME));
+        assertEquals(3, horizon());
+    }
+
+    @Test
+    public void truncate_deletesBooksAndSales_andMovesHorizonPastLastChange() {
+        long bookId = insertBook("First");
+        sell(bookId);
+        insertBook("Second");
+        long lastChange = DatabaseUtils.longForQuery(database, "SELECT MAX(" + ChangeEntry._ID
+                + ") FROM " + ChangeEntry.TABLE_NAME, null);
+
+        assertEquals(2, BookDbHelper.truncateBooks(database));
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, BookEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, SaleEntry.TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, BookEntry.FTS_TABLE_NAME));
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, ChangeEntry.TABLE_NAME));
+        assertTrue(horizon() > lastChange);
+    }
+
+    @Test
+    public void truncate_keepsTriggersWorking() {
+        insertBook("Old");
+        BookDbHelper.truncateBooks(database);
+
+        long bookId = insertBook("Searchable");
+        database.delete(BookEntry.TABLE_NAME, BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+        insertBook("Searchable again");
+
+        assertEquals("insert,delete", operations(bookId));
+        assertTrue(DatabaseUtils.longForQuery(database, "SELECT MIN(" + ChangeEntry._ID
+                + ") FROM " + ChangeEntry.TABLE_NAME, null) > horizon());
+        assertEquals(1, DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM "
+                + BookEntry.FTS_TABLE_NAME + " WHERE " + BookEntry.FTS_TABLE_NAME
+                + " MATCH 'searchable'", null));
+    }
+
+    @Test
+    public void failedCompaction_isTriedAgain() throws InterruptedException {
+        long bookId = insertBook("Title");
+        updatePrice(bookId, 1999);
+
+        // The first compaction finds the database locked, like right after a restore.
+        BookDbHelper failingOnce = new BookDbHelper(InstrumentationRegistry.getTargetContext(),
+                null) {
+            private boolean failed;
+
+            @Override
+            public SQLiteDatabase getWritableDatabase() {
+                if (!failed) {
+                    failed = true;
+                    throw new SQLiteException("database is locked");
+                }
+                return database;
+            }
+        };
+        ChangeLogCompactor compactor = new ChangeLogCompactor(failingOnce, new ReentrantLock(),
+                100, 1, 10);
+        try {
+            compactor.onWrite();
+
+            for (int i = 0; i < 100 && !"update".equals(operations(bookId)); i++) {
+                Thread.sleep(50);
+            }
+            assertEquals("update", operations(bookId));
+        } finally {
+            compactor.close();
+        }
+    }
+
+    // Insert a book with the given title, and return its ID.
+    private long insertBook(String title) {
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, title);
+        book.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        book.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+        return database.insert(BookEntry.TABLE_NAME, null, book);
+    }
+
+    // Set the price of a book.
+    private void updatePrice(long bookId, int price) {
+        ContentValues values = new ContentValues();
+        values.put(BookEntry.COLUMN_BOOK_PRICE, price);
+        database.update(BookEntry.TABLE_NAME, values, BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+    }
+
+    // Add a sale of one copy of a book to the ledger.
+    private void sell(long bookId) {
+        ContentValues sale = new ContentValues();
+        sale.put(SaleEntry.COLUMN_SALE_BOOK_ID, bookId);
+        sale.put(SaleEntry.COLUMN_SALE_AMOUNT, 1);
+        sale.put(SaleEntry.COLUMN_SALE_TIME, System.currentTimeMillis());
+        database.insert(SaleEntry.TABLE_NAME, null, sale);
+    }
+
+    // Return the logged operations of a book in order, separated by commas.
+    private String operations(long bookId) {
+        StringBuilder operations = new StringBuilder();
+        Cursor cursor = database.query(ChangeEntry.TABLE_NAME,
+                new String[]{ChangeEntry.COLUMN_CHANGE_OPERATION},
+                ChangeEntry.COLUMN_CHANGE_BOOK_ID + " = ?", new String[]{String.valueOf(bookId)},
+                null, null, ChangeEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                if (operations.length() > 0) {
+                    operations.append(',');
+                }
+                operations.append(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return operations.toString();
+    }
+
+    // Return the change log horizon.
+    private long horizon() {
+        return DatabaseUtils.longForQuery(database, "SELECT " + BookDbHelper.COLUMN_HORIZON
+                + " FROM " + BookDbHelper.TABLE_CHANGES_HORIZON, null);
+    }
+}
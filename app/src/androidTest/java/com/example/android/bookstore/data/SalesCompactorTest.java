@@ -0,0 +1,144 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SaleEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the current stock is the quantity snapshot minus the sales
+ * ledger, before and after the ledger is compacted.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SalesCompactorTest {
+
+    private BookDbHelper dbHelper;
+    private SQLiteDatabase database;
+    private long bookId;
+
+    @Before
+    public void createBook() {
+        // Use an in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        database = dbHelper.getWritableDatabase();
+
+        ContentValues supplier = new ContentValues();
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+        supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+        long supplierId = database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+
+        ContentValues book = new ContentValues();
+        book.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title");
+        book.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author");
+        book.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+        book.put(BookEntry.COLUMN_BOOK_QUANTITY, 10);
+        book.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+        bookId = database.insert(BookEntry.TABLE_NAME, null, book);
+    }
+
+    @After
+    public void closeDatabase() {
+        dbHelper.close();
+    }
+
+    @Test
+    public void sales_areTakenOffTheCurrentStock() {
+        sell(3);
+        sell(2);
+
+        assertEquals(5, currentStock());
+        assertEquals(10, snapshot());
+    }
+
+    @Test
+    public void compact_foldsSalesIntoSnapshotAndKeepsLedger() {
+        sell(3);
+        SalesCompactor.compact(database);
+        sell(2);
+
+        assertEquals(5, currentStock());
+        assertEquals(7, snapshot());
+
+        SalesCompactor.compact(database);
+
+        assertEquals(5, currentStock());
+        assertEquals(5, snapshot());
+        assertEquals(2, DatabaseUtils.queryNumEntries(database, SaleEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void deleteBook_deletesItsSales() {
+        sell(1);
+        database.delete(BookEntry.TABLE_NAME, null, null);
+
+        assertEquals(0, DatabaseUtils.queryNumEntries(database, SaleEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void failedCompaction_isTriedAgain() throws InterruptedException {
+        // The first compaction finds the database locked, like right after a restore.
+        BookDbHelper failingOnce = new BookDbHelper(InstrumentationRegistry.getTargetContext(),
+                null) {
+            private boolean failed;
+
+            @Override
+            public SQLiteDatabase getWritableDatabase() {
+                if (!failed) {
+                    failed = true;
+                    throw new SQLiteException("database is locked");
+                }
+                return database;
+            }
+        };
+        SalesCompactor compactor = new SalesCompactor(failingOnce, new ReentrantLock(), 1, 10);
+        try {
+            sell(3);
+            compactor.onSale();
+
+            for (int i = 0; i < 100 && snapshot() != 7; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(7, snapshot());
+        } finally {
+            compactor.close();
+        }
+    }
+
+    // Append a sale of the test book to the ledger.
+    private void sell(int amount) {
+        ContentValues sale = new ContentValues();
+        sale.put(SaleEntry.COLUMN_SALE_BOOK_ID, bookId);
+        sale.put(SaleEntry.COLUMN_SALE_AMOUNT, amount);
+        sale.put(SaleEntry.COLUMN_SALE_TIME, System.currentTimeMillis());
+        database.insert(SaleEntry.TABLE_NAME, null, sale);
+    }
+
+    // Return the current stock of the test book, as read by the provider.
+    private long currentStock() {
+        return DatabaseUtils.longForQuery(database, "SELECT " + BookEntry.COLUMN_BOOK_QUANTITY
+                + " FROM " + BookEntry.VIEW_NAME + " WHERE " + BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+    }
+
+    // Return the quantity snapshot of the test book.
+    private long snapshot() {
+        return DatabaseUtils.longForQuery(database, "SELECT " + BookEntry.COLUMN_BOOK_QUANTITY
+                + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ?",
+                new String[]{String.valueOf(bookId)});
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented benchmark that compares single book updates compiled on every call with
+ * updates through the {@link StatementCache}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheBenchmark {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = StatementCacheBenchmark.class.getSimpleName();
+
+    // Number of books in the test catalog.
+    private static final int NUMBER_OF_BOOKS = 1000;
+
+    // Number of updates timed for each way of updating.
+    private static final int NUMBER_OF_UPDATES = 20000;
+
+    private BookDbHelper dbHelper;
+    private SQLiteDatabase database;
+    private StatementCache statementCache;
+
+    @Before
+    public void createCatalog() {
+        // Use an in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        database = dbHelper.getWritableDatabase();
+        statementCache = new StatementCache(dbHelper);
+
+        database.beginTransaction();
+        try {
+            ContentValues supplier = new ContentValues();
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_NAME, "Supplier");
+            supplier.put(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER, "555-0100");
+            long supplierId = database.insert(SupplierEntry.TABLE_NAME, null, supplier);
+            for (int i = 0; i < NUMBER_OF_BOOKS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_PRODUCT_NAME, "Title " + i);
+                values.put(BookEntry.COLUMN_BOOK_AUTHOR, "Author " + i);
+                values.put(BookEntry.COLUMN_BOOK_PRICE, 999);
+                values.put(BookEntry.COLUMN_BOOK_QUANTITY, 5);
+                values.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, supplierId);
+                database.insert(BookEntry.TABLE_NAME, null, values);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @After
+    public void closeDatabase() {
+        statementCache.close();
+        dbHelper.close();
+    }
+
+    @Test
+    public void updateById_compiledEveryCall_vsCached() {
+        // Warm up both paths, then time them. All updates run in one transaction, so the
+        // numbers show the cost of the statements and not of committing to storage.
+        updateCompiledEveryCall(NUMBER_OF_UPDATES / 10);
+        updateCached(NUMBER_OF_UPDATES / 10);
+
+        long compiledNanos = updateCompiledEveryCall(NUMBER_OF_UPDATES);
+        long cachedNanos = updateCached(NUMBER_OF_UPDATES);
+
+        Log.i(LOG_TAG, "Update by id, compiled every call: "
+                + opsPerSecond(compiledNanos) + " ops/s");
+        Log.i(LOG_TAG, "Update by id, cached statement: "
+                + opsPerSecond(cachedNanos) + " ops/s");
+
+        assertTrue(compiledNanos > 0 && cachedNanos > 0);
+    }
+
+    // Update the quantity of books the way the provider did before the statement cache, and
+    // return how long it took.
+    private long updateCompiledEveryCall(int updates) {
+        long start = System.nanoTime();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < updates; i++) {
+                ContentValues values = new ContentValues();
+                values.put(BookEntry.COLUMN_BOOK_QUANTITY, i);
+                int rowsUpdated = database.update(BookEntry.TABLE_NAME, values,
+                        BookEntry._ID + "=?", new String[]{String.valueOf(i % NUMBER_OF_BOOKS + 1)});
+                assertEquals(1, rowsUpdated);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Update the quantity of books through the statement cache, and return how long it took.
+    private long updateCached(int updates) {
+        String sql = "UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " = ? WHERE " + BookEntry._ID + " = ?;";
+        long start = System.nanoTime();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < updates; i++) {
+                SQLiteStatement statement = statementCache.get(sql);
+                statement.bindLong(1, i);
+                statement.bindLong(2, i % NUMBER_OF_BOOKS + 1);
+                assertEquals(1, statement.executeUpdateDelete());
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    // Return the number of operations per second.
+    private static long opsPerSecond(long nanos) {
+        return NUMBER_OF_UPDATES * 1000000000L / nanos;
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.bookstore.data;
+
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented test that checks the statement cache only keeps the statements of threads that
+ * are still alive.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StatementCacheTest {
+
+    // Statement compiled by the test threads.
+    private static final String SQL = "SELECT 1";
+
+    private BookDbHelper dbHelper;
+    private StatementCache cache;
+
+    @Before
+    public void createCache() {
+        // An in-memory database, so the app's inventory is left alone.
+        dbHelper = new BookDbHelper(InstrumentationRegistry.getTargetContext(), null);
+        cache = new StatementCache(dbHelper);
+    }
+
+    @After
+    public void closeCache() {
+        cache.close();
+        dbHelper.close();
+    }
+
+    @Test
+    public void get_onTheSameThread_returnsTheSameStatement() {
+        assertSame(cache.get(SQL), cache.get(SQL));
+        assertEquals(1, cache.threadCount());
+    }
+
+    @Test
+    public void get_afterAThreadHasEnded_releasesItsStatements() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    assertEquals(1, cache.get(SQL).simpleQueryForLong());
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+
+        // Only the statements of the last thread are left until another thread compiles one.
+        assertEquals(1, cache.threadCount());
+        SQLiteStatement statement = cache.get(SQL);
+        assertEquals(1, statement.simpleQueryForLong());
+        assertEquals(1, cache.threadCount());
+    }
+
+    @Test
+    public void get_afterClose_compilesTheStatementAgain() {
+        SQLiteStatement closed = cache.get(SQL);
+        cache.close();
+
+        assertEquals(0, cache.threadCount());
+        SQLiteStatement statement = cache.get(SQL);
+        assertNotSame(closed, statement);
+        assertEquals(1, statement.simpleQueryForLong());
+    }
+}
@@ -1,11 +1,14 @@
 package com.example.android.bookstore;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
+import android.content.res.ColorStateList;
+import android.content.res.Resources;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.graphics.Typeface;
-import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.LongSparseArray;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -15,12 +18,38 @@ import android.widget.CursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.bookstore.data.BookContract;
 import com.example.android.bookstore.data.BookContract.BookEntry;
 
-import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Locale;
 
 public class BookCursorAdapter extends CursorAdapter {
 
+    // Formats the prices for the user's locale.
+    private final PriceFormatter priceFormatter = new PriceFormatter(Locale.getDefault());
+
+    // Text and color of the quantity hint, for books in and out of stock.
+    private final CharSequence inStockText;
+    private final CharSequence outOfStockText;
+    private final ColorStateList inStockColor;
+    private final ColorStateList outOfStockColor;
+
+    // Positions of the book attributes in the cursor, found once for every new cursor.
+    private int idColumnIndex;
+    private int productNameColumnIndex;
+    private int authorColumnIndex;
+    private int priceColumnIndex;
+    private int quantityColumnIndex;
+
+    // Books that changed since the cursor was read, by ID. They are shown with their new values
+    // instead of the ones in the cursor, so a single changed book doesn't reload the list.
+    private final LongSparseArray<ChangedBook> changedBooks = new LongSparseArray<>();
+
+    // IDs of the books in the cursor, sorted, or null if they aren't known. They are read
+    // together with the cursor, so finding a changed book doesn't scan the cursor.
+    private long[] sortedIds;
+
     /**
      * Constructs a new {@link BookCursorAdapter}.
      *
@@ -29,6 +58,87 @@ public class BookCursorAdapter extends CursorAdapter {
      */
     BookCursorAdapter(Context context, Cursor c) {
         super(context, c, 0);
+        Resources resources = context.getResources();
+        inStockText = resources.getText(R.string.in_stock);
+        outOfStockText = resources.getText(R.string.out_of_stock);
+        inStockColor = ColorStateList.valueOf(resources.getColor(R.color.colorTextLight));
+        outOfStockColor = ColorStateList.valueOf(resources.getColor(R.color.colorTextAttention));
+        findColumns(c);
+    }
+
+    // Find the columns of the new cursor before the list is told about it. The changed books
+    // are dropped, since the new cursor may already hold newer values. The IDs of its books
+    // aren't known, so no book can be updated in place.
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        return swapCursor(newCursor, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Swaps in a new cursor of the list. Books that changed after the cursor started to be
+     * read keep showing the values they were updated with, since the cursor may not have them
+     * yet.
+     *
+     * @param newCursor  the new cursor, or null
+     * @param readMillis when the cursor started to be read, in {@link SystemClock#uptimeMillis()}
+     * @param sortedIds  IDs of the books in the cursor, from {@link #sortedIdsOf(Cursor)}, or
+     *                   null if books can't be updated in place
+     * @return the previous cursor, or null
+     */
+    Cursor swapCursor(Cursor newCursor, long readMillis, long[] sortedIds) {
+        for (int i = changedBooks.size() - 1; i >= 0; i--) {
+            ChangedBook book = changedBooks.valueAt(i);
+            if (newCursor == null || book.changedMillis < readMillis) {
+                book.cursor.close();
+                changedBooks.removeAt(i);
+            }
+        }
+        findColumns(newCursor);
+        this.sortedIds = sortedIds;
+        return super.swapCursor(newCursor);
+    }
+
+    /**
+     * Returns the sorted IDs of the books in the cursor. This reads the whole cursor, so it is
+     * meant for the loader's thread, not the main thread.
+     *
+     * @param cursor on the books, with their _id column
+     * @return the IDs, sorted
+     */
+    static long[] sortedIdsOf(Cursor cursor) {
+        int idColumnIndex = cursor.getColumnIndexOrThrow(BookEntry._ID);
+        long[] ids = new long[cursor.getCount()];
+        for (int position = 0; cursor.moveToPosition(position); position++) {
+            ids[position] = cursor.getLong(idColumnIndex);
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Shows the new values of a book that changed, without reloading the list. This only works
+     * for books that are already in the list, in the same place. New and deleted books have to
+     * be shown by reloading the list, and so does any book while the IDs of the cursor aren't
+     * known.
+     *
+     * @param id            of the book
+     * @param book          the book, with the same columns as the list; the adapter closes it
+     * @param changedMillis when the book changed, in {@link SystemClock#uptimeMillis()}
+     * @return true if the list shows the new values, false if the book isn't in the list
+     */
+    boolean updateBook(long id, Cursor book, long changedMillis) {
+        if (getCursor() == null || sortedIds == null || !book.moveToFirst()
+                || Arrays.binarySearch(sortedIds, id) < 0) {
+            book.close();
+            return false;
+        }
+        ChangedBook previous = changedBooks.get(id);
+        if (previous != null) {
+            previous.cursor.close();
+        }
+        changedBooks.put(id, new ChangedBook(book, changedMillis));
+        notifyDataSetChanged();
+        return true;
     }
 
     /**
@@ -43,12 +153,20 @@ public class BookCursorAdapter extends CursorAdapter {
     @Override
     public View newView(Context context, Cursor cursor, ViewGroup parent) {
         // Inflate a list item view using the layout specified in list_item.xml
-        return LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+        View view = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
+
+        // Identify the views once, and keep them with the view for every later bind. The
+        // holder is also the listener of the Sale Button.
+        ViewHolder holder = new ViewHolder(view);
+        holder.btnSale.setOnClickListener(holder);
+        view.setTag(holder);
+        return view;
     }
 
     /**
      * This method binds the book data (in the current row pointed to by cursor) to the given
-     * list item layout.
+     * list item layout. It reuses the holder of the view, and copies the book attributes into
+     * the holder's buffers instead of creating strings, so scrolling doesn't allocate.
      *
      * @param convertView Existing view, returned earlier by newView() method
      * @param context     app context
@@ -56,126 +174,174 @@ public class BookCursorAdapter extends CursorAdapter {
      *                    the correct row.
      */
     @Override
-    public void bindView(View convertView, final Context context, final Cursor cursor) {
-        // Identify the views and populate the ViewHolder.
-        ViewHolder holder = new ViewHolder();
-        holder.tvTitle = convertView.findViewById(R.id.tv_title);
-        holder.tvAuthor = convertView.findViewById(R.id.tv_author);
-        holder.tvPrice = convertView.findViewById(R.id.tv_price);
-        holder.tvQuantity = convertView.findViewById(R.id.tv_quantity);
-        holder.tvQuantityHint = convertView.findViewById(R.id.tv_quantity_hint);
-        holder.btnSale = convertView.findViewById(R.id.btn_sale);
-        convertView.setTag(holder);
-
-        // Find the columns of book attributes that are needed to populate the list.
-        int idColumnIndex = cursor.getColumnIndex(BookEntry._ID);
-        int productNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRODUCT_NAME);
-        int authorColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHOR);
-        int priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
-        final int quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
+    public void bindView(View convertView, Context context, Cursor cursor) {
+        ViewHolder holder = (ViewHolder) convertView.getTag();
+
+        // If the book changed since the cursor was read, show its new values instead.
+        holder.bookId = cursor.getLong(idColumnIndex);
+        ChangedBook changedBook = changedBooks.get(holder.bookId);
+        if (changedBook != null) {
+            cursor = changedBook.cursor;
+        }
 
         // Read the book attributes from the Cursor for the current book.
-        final int bookRowId = cursor.getInt(idColumnIndex);
-        String productName = cursor.getString(productNameColumnIndex);
-        String author = cursor.getString(authorColumnIndex);
-        double price = cursor.getDouble(priceColumnIndex);
-        String quantity = cursor.getString(quantityColumnIndex);
+        long price = cursor.getLong(priceColumnIndex);
+        int quantity = cursor.getInt(quantityColumnIndex);
 
         // Set the the attributes for the current book on the TextViews.
         // Display the book title.
-        holder.tvTitle.setText(productName);
+        cursor.copyStringToBuffer(productNameColumnIndex, holder.titleBuffer);
+        setText(holder.tvTitle, holder.titleBuffer);
 
         // Display the author.
-        holder.tvAuthor.setText(author);
+        cursor.copyStringToBuffer(authorColumnIndex, holder.authorBuffer);
+        setText(holder.tvAuthor, holder.authorBuffer);
 
         // Display the formatted the price corresponding to the user's locale.
-        holder.tvPrice.setText(String.valueOf(NumberFormat.getCurrencyInstance().format(price)));
-
-        // Display "In stock" or "Out of stock" for the quantity hint.
-        if (quantity.equals(context.getString(R.string.zero))) {
-            // Make the text bold in the quantity hint TextView if the quantity is zero.
-            holder.tvQuantityHint.setTypeface(Typeface.create(holder.tvQuantityHint
-                    .getTypeface(), Typeface.BOLD));
+        holder.scratch.setLength(0);
+        priceFormatter.appendTo(holder.scratch, price);
+        setText(holder.tvPrice, holder.priceBuffer, holder.scratch);
 
-            // Change the text color in the quantity hint TextView if the quantity is zero.
-            holder.tvQuantityHint.setTextColor(context.getResources()
-                    .getColor(R.color.colorTextAttention));
-
-            // Set the quantity hint TextView text to "Out of stock:", if the quantity is zero.
-            holder.tvQuantityHint.setText(R.string.out_of_stock);
+        // Display "In stock" or "Out of stock" for the quantity hint. Bold text in the attention
+        // color if the quantity is zero, and the normal state otherwise, in case the view
+        // showed a book that was out of stock before.
+        if (quantity == 0) {
+            holder.tvQuantityHint.setTypeface(holder.boldTypeface);
+            holder.tvQuantityHint.setTextColor(outOfStockColor);
+            holder.tvQuantityHint.setText(outOfStockText);
         } else {
-            // Make sure the quantity hint TextView reverts to it's normal state,
-            // if the quantity was previously zero.
-            holder.tvQuantityHint.setTypeface(Typeface.create(holder.tvQuantityHint
-                    .getTypeface(), Typeface.NORMAL));
-            holder.tvQuantityHint.setTextColor(context.getResources()
-                    .getColor(R.color.colorTextLight));
-
-            // Set the quantity hint TextView text to "In stock:", if the quantity is more than zero.
-            holder.tvQuantityHint.setText(R.string.in_stock);
+            holder.tvQuantityHint.setTypeface(holder.normalTypeface);
+            holder.tvQuantityHint.setTextColor(inStockColor);
+            holder.tvQuantityHint.setText(inStockText);
         }
 
         // Display the quantity.
-        holder.tvQuantity.setText(quantity);
-
-        // Set a listener for the Sale Button.
-        holder.btnSale.setOnClickListener(new View.OnClickListener() {
-
-            // Value for the quantity to be updated.
-            int bookQuantity = cursor.getInt(quantityColumnIndex);
-
-            @Override
-            public void onClick(View view) {
-                // Don't allow the quantity to go below zero.
-                if (bookQuantity == 0) {
-                    // Display a toast, that informs the user the book is out of stock and to reorder.
-                    Toast toast = Toast.makeText(context, R.string.contact_supplier,
-                            Toast.LENGTH_SHORT);
-                    /* Identify the toast TextView so it can be centered, since it's two lines.
-                       Reference: https://stackoverflow.com/a/13492794
-                       Date: 8/14/18
-                     */
-                    TextView toastText = toast.getView().findViewById(android.R.id.message);
-                    toastText.setGravity(Gravity.CENTER);
-                    // End referenced code.
-                    toast.show();
-                } else {
-                    // Form the content URI that represents the specific book that was clicked on.
-                    Uri currentBookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, bookRowId);
-
-                    // Decrease the quantity by one.
-                    bookQuantity--;
-
-                    // Create a new map of values.
-                    ContentValues values = new ContentValues();
-                    values.put(BookEntry.COLUMN_BOOK_QUANTITY, bookQuantity);
-
-                    // Update an existing book quantity.
-                    int rowsUpdated = context.getContentResolver().update(currentBookUri, values,
-                            null, null);
-
-                    // Show a toast message depending on whether the quantity update was successful.
-                    if (rowsUpdated == 0) {
-                        // If no rows were updated, then there was an error with the quantity update.
-                        Toast.makeText(context, R.string.quantity_not_updated,
-                                Toast.LENGTH_SHORT).show();
-                    } else {
-                        // Otherwise, the quantity update was successful.
-                        Toast.makeText(context, R.string.quantity_updated,
-                                Toast.LENGTH_SHORT).show();
-                    }
-                }
-            }
-        });
+        holder.scratch.setLength(0);
+        holder.scratch.append(quantity);
+        setText(holder.tvQuantity, holder.quantityBuffer, holder.scratch);
+    }
+
+    // Find the positions of the book attributes in the given cursor, if there is one.
+    private void findColumns(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        idColumnIndex = cursor.getColumnIndex(BookEntry._ID);
+        productNameColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRODUCT_NAME);
+        authorColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_AUTHOR);
+        priceColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_PRICE);
+        quantityColumnIndex = cursor.getColumnIndex(BookEntry.COLUMN_BOOK_QUANTITY);
+    }
+
+    // Copy the text into the buffer, growing it only if the text doesn't fit, and show the
+    // buffer in the TextView.
+    private static void setText(TextView textView, CharArrayBuffer buffer, StringBuilder text) {
+        int length = text.length();
+        if (buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        text.getChars(0, length, buffer.data, 0);
+        buffer.sizeCopied = length;
+        setText(textView, buffer);
+    }
+
+    // Show the buffer in the TextView. The TextView keeps a reference to the characters of the
+    // buffer instead of a copy, so every TextView has a buffer of its own.
+    private static void setText(TextView textView, CharArrayBuffer buffer) {
+        textView.setText(buffer.data, 0, buffer.sizeCopied);
+    }
+
+    // A book that changed since the list's cursor was read, and when it changed.
+    private static class ChangedBook {
+
+        // Cursor on the book, with the same columns as the list, at its only row.
+        final Cursor cursor;
+
+        // When the book changed, in uptime milliseconds.
+        final long changedMillis;
+
+        ChangedBook(Cursor cursor, long changedMillis) {
+            this.cursor = cursor;
+            this.changedMillis = changedMillis;
+        }
     }
 
-    // Class to hold the views.
-    static class ViewHolder {
-        TextView tvTitle;
-        TextView tvAuthor;
-        TextView tvPrice;
-        TextView tvQuantity;
-        TextView tvQuantityHint;
-        Button btnSale;
+    // Class to hold the views of a list item, the buffers their text is copied into, and the
+    // book they show.
+    static class ViewHolder implements View.OnClickListener {
+
+        // Initial size of the text buffers. They grow to the longest text they are given.
+        private static final int BUFFER_SIZE = 64;
+
+        final TextView tvTitle;
+        final TextView tvAuthor;
+        final TextView tvPrice;
+        final TextView tvQuantity;
+        final TextView tvQuantityHint;
+        final Button btnSale;
+
+        // Buffers of the text of the TextViews, and for building the price and quantity.
+        final CharArrayBuffer titleBuffer = new CharArrayBuffer(BUFFER_SIZE);
+        final CharArrayBuffer authorBuffer = new CharArrayBuffer(BUFFER_SIZE);
+        final CharArrayBuffer priceBuffer = new CharArrayBuffer(BUFFER_SIZE);
+        final CharArrayBuffer quantityBuffer = new CharArrayBuffer(BUFFER_SIZE);
+        final StringBuilder scratch = new StringBuilder(BUFFER_SIZE);
+
+        // Typefaces of the quantity hint, for books in and out of stock.
+        final Typeface normalTypeface;
+        final Typeface boldTypeface;
+
+        // ID of the book the list item shows.
+        long bookId;
+
+        /**
+         * Constructs a new {@link ViewHolder} for the views of the given list item.
+         *
+         * @param view list item, inflated from list_item.xml
+         */
+        ViewHolder(View view) {
+            tvTitle = view.findViewById(R.id.tv_title);
+            tvAuthor = view.findViewById(R.id.tv_author);
+            tvPrice = view.findViewById(R.id.tv_price);
+            tvQuantity = view.findViewById(R.id.tv_quantity);
+            tvQuantityHint = view.findViewById(R.id.tv_quantity_hint);
+            btnSale = view.findViewById(R.id.btn_sale);
+            normalTypeface = Typeface.create(tvQuantityHint.getTypeface(), Typeface.NORMAL);
+            boldTypeface = Typeface.create(tvQuantityHint.getTypeface(), Typeface.BOLD);
+        }
+
+        // Sell one copy of the book the list item shows, when the Sale Button is clicked.
+        @Override
+        public void onClick(View view) {
+            Context context = view.getContext();
+
+            // Sell one copy of the book. The provider decreases the quantity in a single
+            // statement, so sales from a stale list row or another till aren't lost.
+            Bundle result = context.getContentResolver().call(BookEntry.CONTENT_URI,
+                    BookContract.METHOD_SELL, String.valueOf(bookId), null);
+
+            // Show a toast message depending on whether the sale was successful.
+            if (result != null && result.getBoolean(BookContract.EXTRA_SOLD)) {
+                // The quantity update was successful.
+                Toast.makeText(context, R.string.quantity_updated,
+                        Toast.LENGTH_SHORT).show();
+            } else if (result != null && result.getLong(BookContract.EXTRA_QUANTITY) == 0) {
+                // Display a toast, that informs the user the book is out of stock and to reorder.
+                Toast toast = Toast.makeText(context, R.string.contact_supplier,
+                        Toast.LENGTH_SHORT);
+                /* Identify the toast TextView so it can be centered, since it's two lines.
+                   Reference: https://stackoverflow.com/a/13492794
+                   Date: 8/14/18
+                 */
+                TextView toastText = toast.getView().findViewById(android.R.id.message);
+                toastText.setGravity(Gravity.CENTER);
+                // End referenced code.
+                toast.show();
+            } else {
+                // Otherwise, there was an error with the quantity update.
+                Toast.makeText(context, R.string.quantity_not_updated,
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
     }
 }
@@ -2,18 +2,29 @@ package com.example.android.bookstore;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -21,16 +32,79 @@ import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import com.example.android.bookstore.data.BookContract;
 import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookDeleter;
+import com.example.android.bookstore.data.BookImporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
+    // Tag for the log messages.
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
     // The cursor adapter for the ListView.
     private BookCursorAdapter adapter;
 
     // Identifier for the book loader.
     private static final int BOOK_LOADER_ID = 1;
 
+    // Shortest time between two reloads of the book list, in milliseconds. Changes of the
+    // whole list that arrive within this time, like the batches of an import, are shown with
+    // a single reload.
+    private static final long BOOK_LOADER_THROTTLE_MILLIS = 500;
+
+    // Columns of the books in the list.
+    private static final String[] BOOK_LIST_PROJECTION = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_PRODUCT_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER
+    };
+
+    // Token of the queries of single changed books.
+    private static final int CHANGED_BOOK_QUERY = 1;
+
+    // Reads single books that changed in the background, and updates them in the list.
+    private AsyncQueryHandler bookQueryHandler;
+
+    // Watches the books. A changed book is read again on its own and updated in place; any
+    // other change reloads the whole list.
+    private ContentObserver bookObserver;
+
+    // Request code for picking the file to import books from.
+    private static final int REQUEST_IMPORT_BOOKS = 1;
+
+    // Types of the files books can be imported from.
+    private static final String[] IMPORT_MIME_TYPES = {
+            "text/csv",
+            "text/comma-separated-values",
+            "application/json",
+            "text/plain"
+    };
+
+    // The text the user is searching for (null or empty to show all books).
+    private String searchText;
+
+    // Runs the deletes and imports off the main thread, one at a time, so an import never
+    // races a delete of all books.
+    private static final ExecutorService BACKGROUND_TASKS = Executors.newSingleThreadExecutor();
+
+    // Delete of all books that is running, or null if there is none. Only used on the main
+    // thread. It outlives the activity, so the activity that comes back after a rotation shows
+    // its progress again.
+    private static DeleteBooksTask runningDelete;
+
+    // Shows the progress of the running delete, with a button that cancels it.
+    private AlertDialog deleteProgressDialog;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -54,6 +128,27 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Prepare the loader.
         getLoaderManager().initLoader(BOOK_LOADER_ID, null, this);
 
+        // Watch the books for as long as the activity exists, so changes made while another
+        // activity is in front, like the editor, are shown when the user comes back.
+        bookQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                onChangedBookLoaded((long[]) cookie, cursor);
+            }
+        };
+        bookObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onBooksChanged(uri);
+            }
+        };
+        getContentResolver().registerContentObserver(BookEntry.CONTENT_URI, true, bookObserver);
+
         // Set a listener for the list that opens the editor for the book that was clicked.
         bookList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -84,12 +179,99 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(addBook);
             }
         });
+
+        // Show the progress of a delete that was started before a rotation.
+        if (runningDelete != null) {
+            showDeleteProgress();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        getContentResolver().unregisterContentObserver(bookObserver);
+        bookQueryHandler.cancelOperation(CHANGED_BOOK_QUERY);
+
+        // The delete carries on without the activity, and shows its outcome in a toast.
+        if (deleteProgressDialog != null) {
+            deleteProgressDialog.dismiss();
+            deleteProgressDialog = null;
+        }
+        if (runningDelete != null) {
+            runningDelete.progressDialog = null;
+        }
+    }
+
+    // Show a change of the books. A single book that changed is read again on its own, while
+    // the list shows all books. Search results may gain or lose the book, and other changes
+    // may affect any number of books, so they reload the whole list.
+    private void onBooksChanged(Uri uri) {
+        long id = uri == null ? -1 : bookIdOf(uri);
+        if (id == -1 || !TextUtils.isEmpty(searchText)) {
+            reloadBooks();
+            return;
+        }
+        Uri bookUri = ContentUris.withAppendedId(BookEntry.CONTENT_URI, id);
+        long[] cookie = {id, SystemClock.uptimeMillis()};
+        bookQueryHandler.startQuery(CHANGED_BOOK_QUERY, cookie, bookUri, BOOK_LIST_PROJECTION,
+                null, null, null);
+    }
+
+    // Update a changed book in the list. The cookie holds the ID of the book and when it
+    // changed. A book that was added or deleted changes the rows of the list, so the list is
+    // reloaded instead.
+    private void onChangedBookLoaded(long[] cookie, Cursor cursor) {
+        if (isDestroyed()) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        if (cursor == null || !adapter.updateBook(cookie[0], cursor, cookie[1])) {
+            reloadBooks();
+        }
+    }
+
+    // Reload the whole book list.
+    private void reloadBooks() {
+        Loader<Cursor> loader = getLoaderManager().getLoader(BOOK_LOADER_ID);
+        if (loader != null) {
+            loader.onContentChanged();
+        }
+    }
+
+    // Return the ID of the book if the URI is the content URI of a single book, or -1.
+    private static long bookIdOf(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (BookContract.CONTENT_AUTHORITY.equals(uri.getAuthority()) && segments.size() == 2
+                && BookContract.PATH_BOOKSTORE.equals(segments.get(0))
+                && TextUtils.isDigitsOnly(segments.get(1))) {
+            return ContentUris.parseId(uri);
+        }
+        return -1;
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Set a listener for the search field, that reloads the book list as the user types.
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                searchText = newText;
+                getLoaderManager().restartLoader(BOOK_LOADER_ID, null, CatalogActivity.this);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -113,6 +295,12 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Determine which item is selected and take the appropriate action.
         int id = item.getItemId();
 
+        // Respond to a click on the "Import Books" menu option.
+        if (id == R.id.action_import_books) {
+            pickImportFile();
+            return true;
+        }
+
         // Respond to a click on the "Delete All Books" menu option.
         if (id == R.id.action_delete_all_entries) {
             showDeleteConfirmationDialog();
@@ -121,6 +309,29 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
+    // Let the user pick the CSV or JSON file to import books from.
+    private void pickImportFile() {
+        Intent pickFile = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        pickFile.addCategory(Intent.CATEGORY_OPENABLE);
+        pickFile.setType("*/*");
+        pickFile.putExtra(Intent.EXTRA_MIME_TYPES, IMPORT_MIME_TYPES);
+        startActivityForResult(pickFile, REQUEST_IMPORT_BOOKS);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        // Import the books from the file the user picked, off the main thread. The book list
+        // reloads by itself as every batch is inserted.
+        if (requestCode == REQUEST_IMPORT_BOOKS && resultCode == RESULT_OK
+                && data != null && data.getData() != null) {
+            Toast.makeText(this, R.string.import_started, Toast.LENGTH_SHORT).show();
+            BACKGROUND_TASKS.execute(new ImportBooksTask(getApplicationContext(),
+                    data.getData()));
+        }
+    }
+
     // Prompt the user to confirm that they want to delete all books in the database.
     private void showDeleteConfirmationDialog() {
         // Create an AlertDialog.Builder and set the message, and click listeners
@@ -152,47 +363,67 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         alertDialog.show();
     }
 
-    // Delete all books in the database.
+    // Delete all books in the database, off the main thread, and show the progress until they
+    // are gone. The book list reloads by itself once they are deleted.
     private void deleteAllBooks() {
-        int rowsDeleted = getContentResolver().delete(BookEntry.CONTENT_URI, null,
-                null);
-
-        // Show a toast message depending on whether or not the delete was successful.
-        if (rowsDeleted == 0) {
-            // If no rows were deleted, then there was an error with the delete.
-            Toast.makeText(this, R.string.delete_all_error, Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the delete was successful, display a toast.
-            Toast.makeText(this, R.string.delete_all_successful, Toast.LENGTH_SHORT).show();
+        if (runningDelete != null) {
+            return;
         }
+        runningDelete = new DeleteBooksTask(getApplicationContext());
+        BACKGROUND_TASKS.execute(runningDelete);
+        showDeleteProgress();
+    }
+
+    // Show the running delete in a dialog. Its button cancels the delete while it waits for an
+    // import to finish, and is turned off once the books are being deleted.
+    private void showDeleteProgress() {
+        deleteProgressDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.delete_all_progress_title)
+                .setMessage(R.string.delete_all_progress)
+                .setCancelable(false)
+                .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int id) {
+                        if (runningDelete != null) {
+                            runningDelete.deleter.cancel();
+                        }
+                    }
+                })
+                .show();
+        deleteProgressDialog.getButton(DialogInterface.BUTTON_NEGATIVE)
+                .setEnabled(!runningDelete.started);
+        runningDelete.progressDialog = deleteProgressDialog;
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define the projection that specifies which columns from the database
-        // will be used in the query.
-        String[] projection = {
-                BookEntry._ID,
-                BookEntry.COLUMN_BOOK_PRODUCT_NAME,
-                BookEntry.COLUMN_BOOK_AUTHOR,
-                BookEntry.COLUMN_BOOK_PRICE,
-                BookEntry.COLUMN_BOOK_QUANTITY,
-                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER
-        };
+        // Search the books if the user entered a search text, otherwise show all books.
+        Uri booksUri = BookEntry.CONTENT_URI;
+        if (!TextUtils.isEmpty(searchText)) {
+            booksUri = BookEntry.CONTENT_SEARCH_URI.buildUpon()
+                    .appendQueryParameter(BookEntry.QUERY_PARAMETER_SEARCH, searchText)
+                    .build();
+        }
 
         // This loader will execute the ContentProvider's query on the background thread.
-        return new CursorLoader(this,
-                BookEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
-                null);
+        CursorLoader loader = new BookListLoader(this,
+                booksUri,
+                BOOK_LIST_PROJECTION);
+
+        // Don't reload the list more often than the throttle allows.
+        loader.setUpdateThrottle(BOOK_LOADER_THROTTLE_MILLIS);
+        return loader;
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Swap the new cursor in.
-        adapter.swapCursor(cursor);
+        // Swap the new cursor in, with the IDs of its books read by the loader. Books that
+        // changed while it was read keep their new values.
+        if (cursor == null) {
+            adapter.swapCursor(null);
+        } else {
+            BookListCursor bookList = (BookListCursor) cursor;
+            adapter.swapCursor(bookList, bookList.readMillis, bookList.sortedIds);
+        }
 
         // Invalidate the options menu, so the "Delete All Books" menu option can be hidden.
         invalidateOptionsMenu();
@@ -204,4 +435,183 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // above is about to be closed, to make sure it is no longer being used.
         adapter.swapCursor(null);
     }
+
+    // Loads the book list, without reloading it when the books change. The activity watches
+    // the books itself, and only reloads the list when a single book can't be updated in place.
+    private static class BookListLoader extends CursorLoader {
+
+        BookListLoader(Context context, Uri uri, String[] projection) {
+            super(context, uri, projection, null, null, null);
+        }
+
+        // Query the books like CursorLoader does, but without watching the cursor. The IDs of
+        // the books are read here too, in the background, so the list can tell whether a
+        // changed book is one of its own without scanning the cursor.
+        @Override
+        public Cursor loadInBackground() {
+            long readMillis = SystemClock.uptimeMillis();
+            Cursor cursor = getContext().getContentResolver().query(getUri(), getProjection(),
+                    getSelection(), getSelectionArgs(), getSortOrder());
+            if (cursor == null) {
+                return null;
+            }
+            try {
+                return new BookListCursor(cursor, readMillis,
+                        BookCursorAdapter.sortedIdsOf(cursor));
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+    }
+
+    // Cursor on the book list, with when it started to be read and the sorted IDs of its
+    // books.
+    private static class BookListCursor extends CursorWrapper {
+
+        // When the cursor started to be read, in uptime milliseconds.
+        final long readMillis;
+
+        // IDs of the books in the cursor, sorted.
+        final long[] sortedIds;
+
+        BookListCursor(Cursor cursor, long readMillis, long[] sortedIds) {
+            super(cursor);
+            this.readMillis = readMillis;
+            this.sortedIds = sortedIds;
+        }
+    }
+
+    // Deletes all books on a background thread, in a single step that is much faster than
+    // deleting them in chunks, but can't be cancelled once it has started. It can be cancelled
+    // while it waits for an import to finish. The activity's dialog, if there is one, shows
+    // that it is running, and the outcome is shown in a toast. It only holds the application
+    // context, so it doesn't keep the activity alive once the activity has let go of its dialog.
+    private static class DeleteBooksTask implements Runnable, BookDeleter.Listener {
+
+        private final Context context;
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+        final BookDeleter deleter;
+
+        // Whether the books are being deleted, which can't be cancelled, and the dialog that
+        // shows the delete, or null if no activity shows it. Only used on the main thread.
+        boolean started;
+        AlertDialog progressDialog;
+
+        DeleteBooksTask(Context context) {
+            this.context = context;
+            deleter = new BookDeleter(context.getContentResolver(),
+                    BookDeleter.DEFAULT_CHUNK_SIZE, this);
+        }
+
+        @Override
+        public void run() {
+            // Turn off the dialog's button, since the delete can't be stopped from here on.
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    started = true;
+                    if (progressDialog != null) {
+                        progressDialog.getButton(DialogInterface.BUTTON_NEGATIVE)
+                                .setEnabled(false);
+                    }
+                }
+            });
+
+            int rowsDeleted = 0;
+            boolean failed = false;
+            try {
+                rowsDeleted = deleter.deleteAllBooks();
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to delete all books", e);
+                failed = true;
+            }
+
+            // Show the outcome on the main thread. A delete that was cancelled before it
+            // started deleted nothing.
+            final int message = failed ? R.string.delete_all_error
+                    : deleter.isCancelled() && rowsDeleted == 0 ? R.string.delete_all_cancelled
+                    : R.string.delete_all_successful;
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    runningDelete = null;
+                    if (progressDialog != null) {
+                        progressDialog.dismiss();
+                        progressDialog = null;
+                    }
+                    Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+
+        @Override
+        public void onProgress(int rowsDeleted) {
+            Log.d(LOG_TAG, "Deleted " + rowsDeleted + " books");
+        }
+    }
+
+    // Imports books from a file on a background thread, and shows the outcome in a toast. It
+    // only holds the application context, so it doesn't keep the activity alive.
+    private static class ImportBooksTask implements Runnable, BookImporter.Listener {
+
+        private final Context context;
+        private final Uri fileUri;
+
+        ImportBooksTask(Context context, Uri fileUri) {
+            this.context = context;
+            this.fileUri = fileUri;
+        }
+
+        @Override
+        public void run() {
+            ContentResolver contentResolver = context.getContentResolver();
+            String message;
+            try (InputStream in = contentResolver.openInputStream(fileUri)) {
+                if (in == null) {
+                    throw new IOException("Can't open " + fileUri);
+                }
+                BookImporter importer = new BookImporter(contentResolver,
+                        BookImporter.DEFAULT_BATCH_SIZE, this);
+                BookImporter.Result result = importer.importBooks(in, getFormat());
+                message = context.getString(R.string.import_finished,
+                        result.rowsImported, result.rowsRejected);
+            } catch (IOException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to import books from " + fileUri, e);
+                message = context.getString(R.string.import_error);
+            }
+
+            // Show the outcome on the main thread.
+            final String toast = message;
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(context, toast, Toast.LENGTH_LONG).show();
+                }
+            });
+        }
+
+        // Return the format of the file, from its type or else its name. Files are CSV
+        // unless they are known to be JSON.
+        private BookImporter.Format getFormat() {
+            String type = context.getContentResolver().getType(fileUri);
+            String path = fileUri.getLastPathSegment();
+            if ((type != null && type.contains("json"))
+                    || (path != null && path.toLowerCase().endsWith(".json"))) {
+                return BookImporter.Format.JSON;
+            }
+            return BookImporter.Format.CSV;
+        }
+
+        @Override
+        public void onProgress(int rowsRead, int rowsImported, int rowsRejected) {
+            Log.d(LOG_TAG, "Import progress: " + rowsImported + " of " + rowsRead
+                    + " books imported");
+        }
+
+        @Override
+        public void onRowRejected(int row, String reason) {
+            Log.w(LOG_TAG, "Import rejected book " + row + ": " + reason);
+        }
+    }
 }
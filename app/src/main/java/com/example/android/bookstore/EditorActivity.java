@@ -23,10 +23,9 @@ import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.bookstore.data.BookContract;
 import com.example.android.bookstore.data.BookContract.BookEntry;
 
-import java.text.NumberFormat;
-
 public class EditorActivity extends AppCompatActivity implements View.OnClickListener,
         LoaderManager.LoaderCallbacks<Cursor> {
 
@@ -60,6 +59,9 @@ public class EditorActivity extends AppCompatActivity implements View.OnClickLis
     // Keeps track of whether the book has changed or not.
     private boolean bookHasChanged = false;
 
+    // Version of the book the fields were filled in from (-1 until the book is loaded).
+    private long bookVersion = -1;
+
     // OnTouchListener that listens for any user touches on a View, implying that
     // they are modifying the view.
     private View.OnTouchListener touchListener = new View.OnTouchListener() {
@@ -352,8 +354,14 @@ public class EditorActivity extends AppCompatActivity implements View.OnClickLis
             return;
         }
 
-        // Convert the price to a double.
-        double bookPrice = Double.parseDouble(price);
+        // Convert the price to a whole number of cents.
+        long bookPrice;
+        try {
+            bookPrice = PriceFormatter.parseCents(price);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, R.string.enter_price, Toast.LENGTH_SHORT).show();
+            return;
+        }
 
         // Convert the quantity to an int, if there is a quantity entered, if not set it to zero.
         int bookQuantity = 0;
@@ -389,12 +397,22 @@ public class EditorActivity extends AppCompatActivity implements View.OnClickLis
                 // Exit the activity without updating the book.
                 finish();
             } else {
-                // Update the book.
-                int rowsUpdated = getContentResolver().update(currentBookUri, values, null,
-                        null);
+                // Update the book, unless it was changed elsewhere since it was loaded, like by
+                // a sale.
+                Uri bookUri = currentBookUri.buildUpon()
+                        .appendQueryParameter(BookEntry.QUERY_PARAMETER_EXPECTED_VERSION,
+                                String.valueOf(bookVersion))
+                        .build();
+                int rowsUpdated = getContentResolver().update(bookUri, values, null, null);
 
                 // Show a toast message depending on whether or not the update was successful.
-                if (rowsUpdated == 0) {
+                if (rowsUpdated == BookContract.UPDATE_STALE) {
+                    // Show the book as it is now, and let the user make their changes again.
+                    Toast.makeText(this, R.string.update_stale, Toast.LENGTH_LONG).show();
+                    bookHasChanged = false;
+                    getLoaderManager().restartLoader(CURRENT_BOOK_LOADER_ID, null, this);
+                    return;
+                } else if (rowsUpdated == 0) {
                     // If no rows were updated, then there was an error with the update.
                     Toast.makeText(this, R.string.update_error, Toast.LENGTH_SHORT).show();
                 } else {
@@ -471,7 +489,8 @@ public class EditorActivity extends AppCompatActivity implements View.OnClickLis
                 BookEntry.COLUMN_BOOK_PRICE,
                 BookEntry.COLUMN_BOOK_QUANTITY,
                 BookEntry.COLUMN_BOOK_SUPPLIER,
-                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER
+                BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER,
+                BookEntry.COLUMN_BOOK_VERSION
         };
 
         // This loader will execute the ContentProvider's query on the background thread.
@@ -490,6 +509,12 @@ public class EditorActivity extends AppCompatActivity implements View.OnClickLis
             return;
         }
 
+        // The book reloads whenever it changes. Keep the user's changes, and the version they
+        // are based on, so saving them finds out the book has changed.
+        if (bookHasChanged && bookVersion != -1) {
+            return;
+        }
+
         // Proceed with moving to the first row of the cursor and reading data from it.
         if (cursor.moveToFirst()) {
             // Find the columns of book attributes that are needed.
@@ -504,25 +529,20 @@ public class EditorActivity extends AppCompatActivity implements View.OnClickLis
             // Extract out the value from the Cursor for the given column index.
             String productName = cursor.getString(productNameColumnIndex);
             String author = cursor.getString(authorColumnIndex);
-            double price = cursor.getDouble(priceColumnIndex);
+            long price = cursor.getLong(priceColumnIndex);
             quantity = cursor.getInt(quantityColumnIndex);
             String supplier = cursor.getString(supplierColumnIndex);
             supplierPhoneNumber = cursor.getString(supplierPhoneNumberColumnIndex);
+            bookVersion = cursor.getLong(cursor.getColumnIndex(BookEntry.COLUMN_BOOK_VERSION));
 
-            // Format the price to two decimal places so that it displays as "7.50" not "7.5"
-            NumberFormat nf = NumberFormat.getInstance();
-            nf.setMaximumFractionDigits(2);
-            nf.setMinimumFractionDigits(2);
-            String formatPrice = nf.format(price);
-
-            // Remove commas from large numbers so that it displays as "258963.99" not "258,963.99",
-            // to keep the app from crashing when the save button is clicked.
-            String newFormatPrice = formatPrice.replace(",", "");
+            // Format the price to two decimal places without grouping, so that it displays as
+            // "258963.50" and not "258,963.5", and can be saved again as it is.
+            String formatPrice = PriceFormatter.toPlainString(price);
 
             // Update the views on the screen with the values from the database.
             etTitle.setText(productName);
             etAuthor.setText(author);
-            etPrice.setText(newFormatPrice);
+            etPrice.setText(formatPrice);
             etEditQuantity.setText(String.valueOf(quantity));
             etSupplier.setText(supplier);
             etPhoneNumber.setText(supplierPhoneNumber);
@@ -0,0 +1,200 @@
+package com.example.android.bookstore;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.Locale;
+
+/**
+ * Formats prices, which are stored as a whole number of cents: hundredths of a unit, whatever
+ * the locale. A price of 1000 is $10.00 in the US, and 10 yen in Japan.
+ * <p>
+ * The currency format of the locale is looked up once, when the formatter is created, and
+ * prices are then written digit by digit, without any floating point math. They are shown
+ * with as many decimals as the currency has, so yen are rounded to whole units and dinars get
+ * a third decimal.
+ */
+final class PriceFormatter {
+
+    // Number of cents in one unit of currency, and the number of decimals they take.
+    private static final int CENTS_PER_UNIT = 100;
+    private static final int CENT_DIGITS = 2;
+
+    // Number of decimals of the currency, and the number of its smallest units in one unit.
+    private final int fractionDigits;
+    private final long minorUnitsPerUnit;
+
+    // Factor between cents and the smallest units of the currency, in whichever direction is
+    // larger than one.
+    private final long centScale;
+
+    // Text before and after the amount, for example the currency symbol.
+    private final String prefix;
+    private final String suffix;
+
+    // Separators between groups of digits and before the cents.
+    private final char groupingSeparator;
+    private final char decimalSeparator;
+
+    // Number of digits in a group, or 0 if the digits aren't grouped.
+    private final int groupingSize;
+
+    // Reused for building the formatted price. Only used from the UI thread.
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * Constructs a new {@link PriceFormatter} for the currency format of the given locale.
+     *
+     * @param locale to format prices for
+     */
+    PriceFormatter(Locale locale) {
+        fractionDigits = fractionDigits(locale);
+        minorUnitsPerUnit = powerOfTen(fractionDigits);
+        centScale = powerOfTen(Math.abs(fractionDigits - CENT_DIGITS));
+
+        NumberFormat currencyFormat = NumberFormat.getCurrencyInstance(locale);
+        if (currencyFormat instanceof DecimalFormat) {
+            DecimalFormat decimalFormat = (DecimalFormat) currencyFormat;
+            DecimalFormatSymbols symbols = decimalFormat.getDecimalFormatSymbols();
+            prefix = decimalFormat.getPositivePrefix();
+            suffix = decimalFormat.getPositiveSuffix();
+            groupingSeparator = symbols.getGroupingSeparator();
+            decimalSeparator = symbols.getMonetaryDecimalSeparator();
+            groupingSize = decimalFormat.isGroupingUsed() ? decimalFormat.getGroupingSize() : 0;
+        } else {
+            prefix = "";
+            suffix = "";
+            groupingSeparator = ',';
+            decimalSeparator = '.';
+            groupingSize = 3;
+        }
+    }
+
+    // Return the number of decimals of the currency of the given locale.
+    private static int fractionDigits(Locale locale) {
+        try {
+            int fractionDigits = Currency.getInstance(locale).getDefaultFractionDigits();
+            return fractionDigits >= 0 ? fractionDigits : CENT_DIGITS;
+        } catch (IllegalArgumentException e) {
+            // The locale has no country, so there is no currency to go by.
+            return CENT_DIGITS;
+        }
+    }
+
+    // Return 10 to the power of the given exponent.
+    private static long powerOfTen(int exponent) {
+        long power = 1;
+        for (int i = 0; i < exponent; i++) {
+            power *= 10;
+        }
+        return power;
+    }
+
+    /**
+     * Formats the price as currency, for example 123456 as "$1,234.56".
+     *
+     * @param cents price in cents
+     * @return the formatted price
+     */
+    String format(long cents) {
+        builder.setLength(0);
+        appendTo(builder, cents);
+        return builder.toString();
+    }
+
+    /**
+     * Appends the price, formatted as currency, to the given builder.
+     *
+     * @param builder to append the price to
+     * @param cents   price in cents
+     */
+    void appendTo(StringBuilder builder, long cents) {
+        if (cents < 0) {
+            builder.append('-');
+            cents = -cents;
+        }
+        long minorUnits = toMinorUnits(cents);
+        builder.append(prefix);
+        appendUnits(builder, minorUnits / minorUnitsPerUnit);
+        if (fractionDigits > 0) {
+            builder.append(decimalSeparator);
+            appendFraction(builder, minorUnits % minorUnitsPerUnit);
+        }
+        builder.append(suffix);
+    }
+
+    // Return the price in the smallest units of the currency, rounding half cents up for a
+    // currency with fewer decimals than cents.
+    private long toMinorUnits(long cents) {
+        if (fractionDigits >= CENT_DIGITS) {
+            return cents * centScale;
+        }
+        return (cents + centScale / 2) / centScale;
+    }
+
+    // Append the whole units of the price, grouping the digits.
+    private void appendUnits(StringBuilder builder, long units) {
+        int start = builder.length();
+        int digits = 0;
+        do {
+            if (groupingSize > 0 && digits > 0 && digits % groupingSize == 0) {
+                builder.insert(start, groupingSeparator);
+            }
+            builder.insert(start, (char) ('0' + units % 10));
+            units /= 10;
+            digits++;
+        } while (units > 0);
+    }
+
+    /**
+     * Formats the price without a currency symbol or grouping, for example 123456 as
+     * "1234.56", so it can be edited and read back with {@link #parseCents(String)}.
+     *
+     * @param cents price in cents
+     * @return the price as plain text
+     */
+    static String toPlainString(long cents) {
+        StringBuilder builder = new StringBuilder();
+        if (cents < 0) {
+            builder.append('-');
+            cents = -cents;
+        }
+        builder.append(cents / CENTS_PER_UNIT).append('.');
+        appendCents(builder, cents % CENTS_PER_UNIT);
+        return builder.toString();
+    }
+
+    /**
+     * Reads a price entered as plain text, for example "1234.5", as a whole number of cents.
+     * Amounts with more than two decimals are rounded to the nearest cent.
+     *
+     * @param price the price as plain text
+     * @return the price in cents
+     * @throws NumberFormatException if the text isn't a valid price
+     */
+    static long parseCents(String price) {
+        try {
+            return new BigDecimal(price).setScale(CENT_DIGITS, RoundingMode.HALF_UP)
+                    .movePointRight(CENT_DIGITS).longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price is too large: " + price);
+        }
+    }
+
+    // Append the decimals of the price, with as many digits as the currency has decimals.
+    private void appendFraction(StringBuilder builder, long minorUnits) {
+        int start = builder.length();
+        for (int i = 0; i < fractionDigits; i++) {
+            builder.insert(start, (char) ('0' + minorUnits % 10));
+            minorUnits /= 10;
+        }
+    }
+
+    // Append the cents of the price as two digits.
+    private static void appendCents(StringBuilder builder, long cents) {
+        builder.append((char) ('0' + cents / 10)).append((char) ('0' + cents % 10));
+    }
+}
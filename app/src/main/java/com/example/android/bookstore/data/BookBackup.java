@@ -0,0 +1,211 @@
+package com.example.android.bookstore.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Backs up the inventory database to a single file, and restores it from one.
+ * <p>
+ * A backup is a consistent snapshot of the database. On devices whose SQLite supports it, the
+ * snapshot is written by VACUUM INTO, which reads the database like any other query, so only
+ * other writers wait while it runs. Older versions copy the database file and its write-ahead
+ * log while holding the write lock, which is about as fast as copying a file.
+ * <p>
+ * A restore first checks the backup, then copies it next to the database and renames it over
+ * the database file, so the inventory is either fully replaced or left as it was.
+ */
+final class BookBackup {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = BookBackup.class.getSimpleName();
+
+    // Oldest SQLite version that supports VACUUM INTO, as major, minor.
+    private static final int VACUUM_INTO_MAJOR = 3;
+    private static final int VACUUM_INTO_MINOR = 27;
+
+    // Suffixes of the files SQLite keeps next to a database file.
+    private static final String[] DATABASE_FILE_SUFFIXES = {"-wal", "-shm", "-journal"};
+
+    private BookBackup() {
+    }
+
+    /**
+     * Writes a consistent snapshot of the database to the given file, replacing it if it
+     * exists. The snapshot is written to a temporary file first, so an interrupted backup
+     * never leaves a partial file behind.
+     *
+     * @param dbHelper    helper for the database to back up
+     * @param destination file to write the backup to
+     * @throws IOException if the backup can't be written
+     */
+    static void backup(SQLiteOpenHelper dbHelper, File destination) throws IOException {
+        File temp = new File(destination.getPath() + ".tmp");
+        deleteDatabaseFiles(temp);
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        try {
+            if (supportsVacuumInto(database)) {
+                database.execSQL("VACUUM INTO ?;", new Object[]{temp.getPath()});
+            } else {
+                copyDatabaseFiles(database, temp);
+            }
+        } catch (SQLiteException e) {
+            deleteDatabaseFiles(temp);
+            throw new IOException("Failed to back up the database", e);
+        }
+
+        if (!temp.renameTo(destination)) {
+            deleteDatabaseFiles(temp);
+            throw new IOException("Failed to move the backup to " + destination);
+        }
+    }
+
+    /**
+     * Replaces the database with the given backup, and opens it again. A backup of an older
+     * schema version is upgraded when it is opened. Must not be called while another thread
+     * is using the database; threads that open it after the restore get the restored one.
+     *
+     * @param dbHelper helper for the database to replace
+     * @param backup   file written by {@link #backup}
+     * @throws IOException if the backup isn't a valid inventory database, or it can't be
+     *                     copied. The database is left as it was.
+     */
+    static void restore(SQLiteOpenHelper dbHelper, File backup) throws IOException {
+        // Hold the helper's lock, so no other thread can open the database while it is being
+        // replaced.
+        synchronized (dbHelper) {
+            SQLiteDatabase database = dbHelper.getWritableDatabase();
+            File databaseFile = new File(database.getPath());
+            if (!databaseFile.isFile()) {
+                throw new IOException("Only a database file can be restored");
+            }
+            checkBackup(backup, database.getVersion());
+
+            // Copy the backup into the database's directory, so it can be renamed over the
+            // database file in one step.
+            File temp = new File(databaseFile.getPath() + ".restore");
+            deleteDatabaseFiles(temp);
+            copyFile(backup, temp);
+
+            // Closing the last connection checkpoints the write-ahead log into the old file.
+            // Any log left behind belongs to the old file, so it must go before the rename.
+            dbHelper.close();
+            deleteSidecarFiles(databaseFile);
+            if (!temp.renameTo(databaseFile)) {
+                temp.delete();
+                throw new IOException("Failed to replace " + databaseFile);
+            }
+            dbHelper.getWritableDatabase();
+        }
+    }
+
+    // Check that the file is an intact inventory database of a version that can be opened.
+    private static void checkBackup(File backup, int currentVersion) throws IOException {
+        SQLiteDatabase database;
+        try {
+            database = SQLiteDatabase.openDatabase(backup.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            throw new IOException("Backup can't be opened: " + backup, e);
+        }
+        try {
+            String check = DatabaseUtils.stringForQuery(database, "PRAGMA quick_check;", null);
+            if (!"ok".equals(check)) {
+                throw new IOException("Backup is damaged: " + check);
+            }
+            int version = database.getVersion();
+            if (version < 1 || version > currentVersion) {
+                throw new IOException("Backup has unsupported version " + version);
+            }
+        } catch (SQLiteException e) {
+            throw new IOException("Backup can't be read: " + backup, e);
+        } finally {
+            database.close();
+        }
+    }
+
+    // Return whether the SQLite library supports VACUUM INTO.
+    private static boolean supportsVacuumInto(SQLiteDatabase database) {
+        String[] version = DatabaseUtils.stringForQuery(database, "SELECT sqlite_version();",
+                null).split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > VACUUM_INTO_MAJOR
+                || (major == VACUUM_INTO_MAJOR && minor >= VACUUM_INTO_MINOR);
+    }
+
+    // Copy the database file and its write-ahead log while holding the write lock, so neither
+    // changes during the copy. Readers carry on. The copy is then opened without write-ahead
+    // logging, which folds the log into it, so the backup is a single file.
+    private static void copyDatabaseFiles(SQLiteDatabase database, File destination)
+            throws IOException {
+        database.beginTransaction();
+        try {
+            copyFile(new File(database.getPath()), destination);
+            File wal = new File(database.getPath() + "-wal");
+            if (wal.exists()) {
+                copyFile(wal, new File(destination.getPath() + "-wal"));
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        SQLiteDatabase copy = SQLiteDatabase.openDatabase(destination.getPath(), null,
+                SQLiteDatabase.OPEN_READWRITE);
+        try {
+            copy.disableWriteAheadLogging();
+        } finally {
+            copy.close();
+        }
+    }
+
+    // Copy a file by letting the kernel move the bytes between the two channels.
+    private static void copyFile(File source, File destination) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(destination);
+            try {
+                FileChannel inChannel = in.getChannel();
+                FileChannel outChannel = out.getChannel();
+                long size = inChannel.size();
+                long position = 0;
+                while (position < size) {
+                    position += inChannel.transferTo(position, size - position, outChannel);
+                }
+                // Make sure the copy is on disk before it replaces anything.
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // Delete a database file together with the files SQLite keeps next to it.
+    private static void deleteDatabaseFiles(File databaseFile) {
+        if (databaseFile.exists() && !databaseFile.delete()) {
+            Log.w(LOG_TAG, "Failed to delete " + databaseFile);
+        }
+        deleteSidecarFiles(databaseFile);
+    }
+
+    // Delete the files SQLite keeps next to a database file, but not the file itself.
+    private static void deleteSidecarFiles(File databaseFile) {
+        for (String suffix : DATABASE_FILE_SUFFIXES) {
+            File file = new File(databaseFile.getPath() + suffix);
+            if (file.exists() && !file.delete()) {
+                Log.w(LOG_TAG, "Failed to delete " + file);
+            }
+        }
+    }
+}
@@ -20,6 +20,107 @@ public final class BookContract {
     // Possible path (appended to base content URI for possible URI's).
     public static final String PATH_BOOKSTORE = "bookstore";
 
+    // Path for searching books (appended to the books content URI).
+    public static final String PATH_SEARCH = "search";
+
+    // Path for the inventory statistics (appended to the books content URI).
+    public static final String PATH_STATS = "stats";
+
+    // Path for the inventory statistics per supplier (appended to the statistics content URI).
+    public static final String PATH_STATS_SUPPLIER = "supplier";
+
+    // Path for the suppliers (appended to base content URI).
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    // Path for the sales ledger (appended to base content URI).
+    public static final String PATH_SALES = "sales";
+
+    // Path for the change log of the books (appended to the books content URI).
+    public static final String PATH_CHANGES = "changes";
+
+    // Path for exporting the books as a CSV file (appended to the books content URI).
+    public static final String PATH_EXPORT = "export";
+
+    // Name of the provider method that sells copies of a single book.
+    // The book ID is passed as the method argument.
+    public static final String METHOD_SELL = "sell";
+
+    // Extra for the number of copies to sell. Defaults to one copy if it is not given.
+    public static final String EXTRA_AMOUNT = "amount";
+
+    // Result extra that is true if the sale went through.
+    public static final String EXTRA_SOLD = "sold";
+
+    // Result extra for the quantity left after the sale, or -1 if the book doesn't exist.
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    // Name of the provider method that returns the hit and miss counts of the single book cache.
+    public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+    // Name of the provider method that returns the hit and miss counts of the book list cache.
+    public static final String METHOD_QUERY_CACHE_STATS = "query_cache_stats";
+
+    // Result extras for the number of queries that found their result in the cache, and the
+    // number that had to read the database.
+    public static final String EXTRA_HITS = "hits";
+    public static final String EXTRA_MISSES = "misses";
+
+    // Name of the provider method that returns the latency and throughput metrics of the
+    // provider. The result holds a bundle for every operation and URI that was called, keyed by
+    // the operation and the URI, like "query:books" or "update:book".
+    public static final String METHOD_METRICS = "metrics";
+
+    // Extras of the bundle of an operation on a URI: the number of calls, their total and
+    // longest latency in nanoseconds, the total and largest number of rows they returned or
+    // affected, and a histogram of the latencies. Element 0 of the histogram counts the calls
+    // under one microsecond, element i the calls under 2^i microseconds, and the last element
+    // all longer calls.
+    public static final String EXTRA_CALLS = "calls";
+    public static final String EXTRA_TOTAL_NANOS = "total_nanos";
+    public static final String EXTRA_MAX_NANOS = "max_nanos";
+    public static final String EXTRA_ROWS = "rows";
+    public static final String EXTRA_MAX_ROWS = "max_rows";
+    public static final String EXTRA_LATENCY_HISTOGRAM = "latency_histogram";
+
+    // Result extra of the metrics for the number of change notifications sent, as a bundle
+    // keyed by the URI.
+    public static final String EXTRA_NOTIFICATIONS = "notifications";
+
+    // Name of the provider method that returns the most recent slow queries of the provider,
+    // as a list of bundles under EXTRA_SLOW_QUERIES, newest first. Each bundle holds when the
+    // query finished, the URI, the SQL and its arguments, how long it took under
+    // EXTRA_ELAPSED_NANOS, the number of rows under EXTRA_ROWS, and the query plan with one
+    // step per line. The SQL and the plan are missing for queries answered from a cache.
+    public static final String METHOD_SLOW_QUERIES = "slow_queries";
+
+    // Name of the provider method that sets how long a query has to take to be logged as
+    // slow. The threshold is passed in milliseconds as the method argument.
+    public static final String METHOD_SET_SLOW_QUERY_THRESHOLD = "set_slow_query_threshold";
+
+    // Extras of the slow queries.
+    public static final String EXTRA_SLOW_QUERIES = "slow_queries";
+    public static final String EXTRA_TIME_MILLIS = "time_millis";
+    public static final String EXTRA_URI = "uri";
+    public static final String EXTRA_SQL = "sql";
+    public static final String EXTRA_ARGS = "args";
+    public static final String EXTRA_ELAPSED_NANOS = "elapsed_nanos";
+    public static final String EXTRA_QUERY_PLAN = "query_plan";
+
+    // Names of the provider methods that back up the database to a file, and replace the
+    // database with a backup. The path of the backup file is passed as the method argument, so
+    // they can only be called from the app's own process. A restore waits until the database
+    // is no longer being used, and holds off every other call until it is done.
+    public static final String METHOD_BACKUP = "backup";
+    public static final String METHOD_RESTORE = "restore";
+
+    // Result extra for how long a backup or restore took, in milliseconds.
+    public static final String EXTRA_ELAPSED_MILLIS = "elapsed_millis";
+
+    // Result of an update of a single book with an expected version, when the book has been
+    // written since that version was read. Nothing is written, so the caller can read the book
+    // again and decide what to do.
+    public static final int UPDATE_STALE = -1;
+
     // Inner class that defines the table contents of the books table.
     public static final class BookEntry implements BaseColumns {
 
@@ -27,6 +128,41 @@ public final class BookContract {
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
                 PATH_BOOKSTORE);
 
+        // The content URI to search the books by title, author and supplier. The search text is
+        // given with the {@link #QUERY_PARAMETER_SEARCH} query parameter, every word in it is
+        // matched as a prefix, and the best matches are returned first.
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_SEARCH);
+
+        // The content URI to export all books as a CSV file, in the format the book importer
+        // reads. It is opened as a stream with ContentResolver.openInputStream, not queried.
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_EXPORT);
+
+        // The MIME type of the {@link #CONTENT_EXPORT_URI}.
+        public static final String EXPORT_MIME_TYPE = "text/csv";
+
+        // Query parameter for the search text of the {@link #CONTENT_SEARCH_URI}.
+        public static final String QUERY_PARAMETER_SEARCH = "q";
+
+        // Query parameters for reading the {@link #CONTENT_URI} one page at a time. The sort
+        // order must be a single column, optionally followed by ASC or DESC, and books with
+        // the same value are ordered by _id. To read the next page, pass the sort column
+        // value and the _id of the last book of the previous page.
+        public static final String QUERY_PARAMETER_PAGE_SIZE = "page_size";
+        public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+        public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+        // Query parameter for deleting at most this many books from the {@link #CONTENT_URI},
+        // lowest _id first, so a large delete can be split into short transactions. Without it
+        // and without a selection, all books are deleted at once, which is much faster.
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        // Query parameter for the version of a single book an update is based on. The update
+        // only goes through if the book still has this version, and otherwise returns
+        // {@link BookContract#UPDATE_STALE}.
+        public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
         // The MIME type of the {@link #CONTENT_URI} for a list of books.
         public static final String CONTENT_LIST_TYPE =
                 ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
@@ -40,12 +176,149 @@ public final class BookContract {
         // Table name for the books database.
         public static final String TABLE_NAME = "books";
 
+        // Name of the view that joins every book with its supplier. Books are read from the
+        // view, so the supplier columns can be queried as if they were part of the book.
+        public static final String VIEW_NAME = "books_view";
+
+        // Name of the full-text search table that indexes the books table.
+        public static final String FTS_TABLE_NAME = "books_fts";
+
         // Column names for the books table.
         public static final String COLUMN_BOOK_PRODUCT_NAME = "product_name";
         public static final String COLUMN_BOOK_AUTHOR = "author";
+        // The price is a whole number of cents, so it is exact and sums up without rounding.
         public static final String COLUMN_BOOK_PRICE = "price";
+        // In the books table the quantity is a snapshot of the stock, that the sales recorded
+        // after it haven't been taken off yet. The view returns the current stock.
         public static final String COLUMN_BOOK_QUANTITY = "quantity";
+        // ID of the book's supplier in the suppliers table.
+        public static final String COLUMN_BOOK_SUPPLIER_ID = "supplier_id";
+        // Version of the book, which goes up with every change of the book, its sales and its
+        // supplier. It is kept by the database, and can't be written.
+        public static final String COLUMN_BOOK_VERSION = "version";
+
+        // The supplier's name and phone number are stored in the suppliers table, and joined
+        // in by the view. When a book is inserted or updated with them, the provider finds the
+        // matching supplier, or adds it if it is new.
         public static final String COLUMN_BOOK_SUPPLIER = "supplier";
         public static final String COLUMN_BOOK_SUPPLIER_PHONE_NUMBER = "supplier_phone_number";
     }
+
+    // Inner class that defines the table contents of the suppliers table.
+    public static final class SupplierEntry implements BaseColumns {
+
+        // The content URI to access the supplier data in the provider.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_SUPPLIERS);
+
+        // The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_SUPPLIERS;
+
+        // The MIME type of the {@link #CONTENT_URI} for a single supplier.
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_SUPPLIERS;
+
+        // Table name for the suppliers.
+        public static final String TABLE_NAME = "suppliers";
+
+        // Column names for the suppliers table. Every pair of name and phone number is unique.
+        public static final String COLUMN_SUPPLIER_NAME = "name";
+        public static final String COLUMN_SUPPLIER_PHONE_NUMBER = "phone_number";
+    }
+
+    // Inner class that defines the table contents of the sales ledger. Every sale adds a row,
+    // and rows are never changed. The sales of a book are deleted together with the book.
+    public static final class SaleEntry implements BaseColumns {
+
+        // The content URI to read the sales ledger. Sales are recorded with {@link #METHOD_SELL}.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_SALES);
+
+        // The MIME type of the {@link #CONTENT_URI} for a list of sales.
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_SALES;
+
+        // Table name for the sales ledger.
+        public static final String TABLE_NAME = "sales";
+
+        // Column names for the sales table.
+        public static final String COLUMN_SALE_BOOK_ID = "book_id";
+        public static final String COLUMN_SALE_AMOUNT = "amount";
+        // Time of the sale, in milliseconds since the epoch.
+        public static final String COLUMN_SALE_TIME = "sold_at";
+    }
+
+    // Inner class that defines the table contents of the change log of the books. Triggers add
+    // a row for every book that is inserted, changed, sold or deleted, numbered by a sequence
+    // that only goes up. Readers that mirror the books ask for the changes after the last
+    // sequence number they have seen, instead of reading all books again.
+    public static final class ChangeEntry implements BaseColumns {
+
+        // The content URI to read the changes after the sequence number given with the
+        // {@link #QUERY_PARAMETER_SINCE} query parameter, oldest first. Only the last change of
+        // each book is kept. If changes after the given number have been dropped, or no number
+        // is given, a single {@link #OPERATION_RESYNC} row is returned instead: the reader has
+        // to read all books again, then ask for the changes after the sequence number of that
+        // row.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI,
+                PATH_CHANGES);
+
+        // Query parameter for the last sequence number the reader has seen.
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        // The MIME type of the {@link #CONTENT_URI} for a list of changes.
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_CHANGES;
+
+        // Table name for the change log. The _id column is the sequence number.
+        public static final String TABLE_NAME = "book_changes";
+
+        // Column names for the change log table.
+        public static final String COLUMN_CHANGE_BOOK_ID = "book_id";
+        public static final String COLUMN_CHANGE_OPERATION = "operation";
+        // Time of the change, in milliseconds since the epoch.
+        public static final String COLUMN_CHANGE_TIME = "changed_at";
+
+        // Possible values for the operation. An insert or update means the book has to be read
+        // again; a book that was inserted and then changed may only be reported as updated.
+        // Compacting the sales ledger is reported as an update of the books that were sold.
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        public static final String OPERATION_RESYNC = "resync";
+    }
+
+    // Inner class that defines the columns of the inventory statistics. The statistics are
+    // read-only and are computed from the books table.
+    public static final class StatsEntry {
+
+        // The content URI for the statistics of the whole inventory, as a single row.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BookEntry.CONTENT_URI,
+                PATH_STATS);
+
+        // The content URI for the statistics of each supplier, one row per supplier.
+        public static final Uri CONTENT_SUPPLIER_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_STATS_SUPPLIER);
+
+        // The MIME type of the statistics content URIs.
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/"
+                        + PATH_STATS;
+
+        // Total value of the books in stock (price times quantity), in cents.
+        public static final String COLUMN_STOCK_VALUE = "stock_value";
+        // Number of copies in stock.
+        public static final String COLUMN_UNITS = "units";
+        // Number of different books.
+        public static final String COLUMN_TITLES = "titles";
+        // Number of books that are out of stock.
+        public static final String COLUMN_OUT_OF_STOCK = "out_of_stock";
+        // Supplier the statistics belong to, only in the statistics per supplier.
+        public static final String COLUMN_SUPPLIER = BookEntry.COLUMN_BOOK_SUPPLIER;
+    }
 }
@@ -1,18 +1,87 @@
 package com.example.android.bookstore.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.provider.BaseColumns;
+import android.support.annotation.VisibleForTesting;
 
 import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.ChangeEntry;
+import com.example.android.bookstore.data.BookContract.SaleEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
 
 public class BookDbHelper extends SQLiteOpenHelper {
 
     // Name of the database.
-    private static final String DATABASE_NAME = "inventory.db";
+    public static final String DATABASE_NAME = "inventory.db";
 
     // Database version. If the schema changes, the database version must be incremented.
-    private static final int DATABASE_VERSION = 1;
+    // Version 2 adds the indexes for sorting and filtering the catalog.
+    // Version 3 adds the full-text search table.
+    // Version 4 stores the price as a whole number of cents instead of a REAL.
+    // Version 5 moves the suppliers into their own table.
+    // Version 6 records the sales in an append-only ledger.
+    // Version 7 adds the change log of the books.
+    // Version 8 adds the version of every book, for optimistic concurrency.
+    // Version 9 stops logging the updates of the sales compactor in the change log.
+    // Version 10 gives the computed quantity and version of the view an integer affinity.
+    private static final int DATABASE_VERSION = 10;
+
+    // Default number of pages the write-ahead log can grow to before it is checkpointed back
+    // into the database file. This is SQLite's own default.
+    static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+
+    // Number of write-ahead log pages after which a checkpoint runs, or 0 to never checkpoint
+    // automatically.
+    private final int walAutoCheckpointPages;
+
+    // Index names for the books table.
+    static final String INDEX_BOOKS_PRODUCT_NAME = "books_product_name_idx";
+    static final String INDEX_BOOKS_AUTHOR = "books_author_idx";
+    static final String INDEX_BOOKS_SUPPLIER = "books_supplier_idx";
+    static final String INDEX_BOOKS_OUT_OF_STOCK = "books_out_of_stock_idx";
+
+    // Index name for the sales table.
+    static final String INDEX_SALES_BOOK = "sales_book_idx";
+
+    // Single row table that holds the ID of the last sale that has been compacted into the
+    // quantities of the books table.
+    static final String TABLE_SALES_COMPACTION = "sales_compaction";
+    static final String COLUMN_LAST_SALE_ID = "last_sale_id";
+
+    // Index name for the change log.
+    static final String INDEX_CHANGES_BOOK = "book_changes_book_idx";
+
+    // Single row table that holds the change log horizon: changes up to this sequence number
+    // may have been dropped, so readers that have seen less have to read all books again.
+    static final String TABLE_CHANGES_HORIZON = "book_changes_horizon";
+    static final String COLUMN_HORIZON = "horizon";
+
+    // SQL expression for the current time, in milliseconds since the epoch.
+    private static final String SQL_NOW_MILLIS =
+            "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    // SQL expression for the current stock of a book: the quantity snapshot, minus the sales
+    // that haven't been compacted into it yet.
+    static final String SQL_CURRENT_QUANTITY = BookEntry.TABLE_NAME + "."
+            + BookEntry.COLUMN_BOOK_QUANTITY + " - IFNULL((SELECT SUM("
+            + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_AMOUNT + ") FROM "
+            + SaleEntry.TABLE_NAME + " WHERE " + SaleEntry.TABLE_NAME + "."
+            + SaleEntry.COLUMN_SALE_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID
+            + " AND " + SaleEntry.TABLE_NAME + "." + SaleEntry._ID + " > (SELECT "
+            + COLUMN_LAST_SALE_ID + " FROM " + TABLE_SALES_COMPACTION + ")), 0)";
+
+    // SQL expression for the current version of a book: the stored version, plus the number of
+    // sales that haven't been compacted into it yet. A sale doesn't write the book's row, but
+    // still changes its version.
+    static final String SQL_CURRENT_VERSION = BookEntry.TABLE_NAME + "."
+            + BookEntry.COLUMN_BOOK_VERSION + " + (SELECT COUNT(*) FROM " + SaleEntry.TABLE_NAME
+            + " WHERE " + SaleEntry.TABLE_NAME + "." + SaleEntry.COLUMN_SALE_BOOK_ID + " = "
+            + BookEntry.TABLE_NAME + "." + BookEntry._ID + " AND " + SaleEntry.TABLE_NAME + "."
+            + SaleEntry._ID + " > (SELECT " + COLUMN_LAST_SALE_ID + " FROM "
+            + TABLE_SALES_COMPACTION + "))";
 
     /**
      * Constructs a new instance of {@link BookDbHelper}.
@@ -20,29 +89,620 @@ public class BookDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     BookDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Constructs a new instance of {@link BookDbHelper} for the database with the given name.
+     *
+     * @param context of the app
+     * @param name    of the database file, or null for an in-memory database
+     */
+    @VisibleForTesting
+    BookDbHelper(Context context, String name) {
+        this(context, name, DEFAULT_WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Constructs a new instance of {@link BookDbHelper} with the given checkpoint policy.
+     *
+     * @param context                of the app
+     * @param name                   of the database file, or null for an in-memory database
+     * @param walAutoCheckpointPages number of write-ahead log pages after which a checkpoint
+     *                               runs, or 0 to turn off automatic checkpoints
+     */
+    BookDbHelper(Context context, String name, int walAutoCheckpointPages) {
+        super(context, name, null, DATABASE_VERSION);
+        this.walAutoCheckpointPages = walAutoCheckpointPages;
+
+        // Use write-ahead logging, so the catalog can be read while a sale is being written.
+        // This also lets the database open several connections for readers.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    // This is called when the database connection is being configured, before the database
+    // is created or upgraded.
+    @Override
+    public void onConfigure(SQLiteDatabase database) {
+        // Make sure every book refers to an existing supplier.
+        database.setForeignKeyConstraintsEnabled(true);
+
+        // Set how large the write-ahead log can grow before it is checkpointed. The pragma
+        // returns the new value, so it has to be run as a query.
+        DatabaseUtils.longForQuery(database, "PRAGMA wal_autocheckpoint = "
+                + walAutoCheckpointPages + ";", null);
     }
 
     // This is called when the database is created for the first time.
     @Override
     public void onCreate(SQLiteDatabase database) {
-        // Create a String that contains the SQL statement to create  the books table.
-        String SQL_CREATE_BOOKS_TABLE = "CREATE TABLE " + BookEntry.TABLE_NAME + " ("
+        // Execute the SQL statements to create the suppliers and books tables.
+        database.execSQL(SQL_CREATE_SUPPLIERS_TABLE);
+        database.execSQL(createBooksTableSql(BookEntry.TABLE_NAME));
+
+        // Create the indexes, sales ledger, versions, view and search table of the books.
+        createBookIndexes(database);
+        createSalesTables(database);
+        createBookVersions(database);
+        createBooksView(database, castToInteger(SQL_CURRENT_QUANTITY),
+                castToInteger(SQL_CURRENT_VERSION));
+        createSearchTable(database);
+        createChangeLog(database);
+        createUpdateChangeTrigger(database);
+    }
+
+    // This is called when the database needs to be upgraded. Each step brings the schema
+    // up one version, so a database can be upgraded from any older version.
+    @Override
+    public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
+        // The steps before version 5 work on the schema of their own version, which still
+        // had the supplier in the books table.
+        if (oldVersion < 2) {
+            createBookIndexesV2(database);
+        }
+        if (oldVersion < 3) {
+            createSearchTableV3(database);
+        }
+        if (oldVersion < 4) {
+            migratePriceToCents(database);
+        }
+        if (oldVersion < 5) {
+            migrateSuppliers(database);
+        }
+        if (oldVersion < 6) {
+            // Add the sales ledger, and take it into account in the quantity of the view.
+            createSalesTables(database);
+            database.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+            createBooksView(database, SQL_CURRENT_QUANTITY, null);
+        }
+        if (oldVersion < 7) {
+            // Add the change log. The books that already exist were never logged, so start
+            // the sequence after the horizon, which makes readers read all books first.
+            createChangeLog(database);
+            database.execSQL("UPDATE " + TABLE_CHANGES_HORIZON + " SET "
+                    + COLUMN_HORIZON + " = 1;");
+            database.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('"
+                    + ChangeEntry.TABLE_NAME + "', 1);");
+        }
+        if (oldVersion < 8) {
+            // Add the versions of the books, and show them in the view.
+            createBookVersions(database);
+            database.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+            createBooksView(database, SQL_CURRENT_QUANTITY, SQL_CURRENT_VERSION);
+        }
+        if (oldVersion < 9) {
+            // Stop logging the updates of the sales compactor, which don't change the current
+            // stock. The change log of version 7 logged every update.
+            database.execSQL("DROP TRIGGER IF EXISTS books_changes_after_update;");
+            createUpdateChangeTrigger(database);
+        }
+        if (oldVersion < 10) {
+            // A computed column has no affinity, so its integers never equaled the numbers a
+            // selection binds as text. The cast gives the quantity and version the affinity of
+            // the other integer columns.
+            database.execSQL("DROP VIEW " + BookEntry.VIEW_NAME + ";");
+            createBooksView(database, castToInteger(SQL_CURRENT_QUANTITY),
+                    castToInteger(SQL_CURRENT_VERSION));
+        }
+    }
+
+    /**
+     * Deletes all books together with their sales, in one transaction.
+     * <p>
+     * SQLite deletes a row at a time while a delete trigger has to run, and removing every
+     * book from the search index one document at a time costs more than deleting the books.
+     * So the delete triggers and the search table are dropped, and created again once the
+     * books are gone. The change log is cleared as well, and its horizon moves past the last
+     * change, so every reader of the change log reads all books again.
+     *
+     * @param database to delete the books from
+     * @return the number of books that were deleted
+     */
+    static int truncateBooks(SQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            int bookCount = (int) DatabaseUtils.queryNumEntries(database, BookEntry.TABLE_NAME);
+            database.execSQL("DROP TRIGGER books_changes_after_delete;");
+            dropSearchTable(database);
+
+            database.execSQL("DELETE FROM " + SaleEntry.TABLE_NAME + ";");
+            database.execSQL("DELETE FROM " + BookEntry.TABLE_NAME + ";");
+
+            // Move the horizon one past the last sequence number that was handed out, so even
+            // a reader that has seen every change is behind it. The next change gets a higher
+            // number than the horizon.
+            long horizon = DatabaseUtils.longForQuery(database, "SELECT MAX(" + COLUMN_HORIZON
+                    + ", IFNULL((SELECT seq FROM sqlite_sequence WHERE name = '"
+                    + ChangeEntry.TABLE_NAME + "'), 0)) + 1 FROM " + TABLE_CHANGES_HORIZON + ";",
+                    null);
+            database.execSQL("DELETE FROM " + ChangeEntry.TABLE_NAME + ";");
+            database.execSQL("UPDATE " + TABLE_CHANGES_HORIZON + " SET " + COLUMN_HORIZON
+                    + " = ?;", new Object[]{horizon});
+            database.execSQL("DELETE FROM sqlite_sequence WHERE name = '"
+                    + ChangeEntry.TABLE_NAME + "';");
+            database.execSQL("INSERT INTO sqlite_sequence (name, seq) VALUES ('"
+                    + ChangeEntry.TABLE_NAME + "', ?);", new Object[]{horizon});
+
+            createDeleteChangeTrigger(database);
+            createSearchTable(database);
+            database.setTransactionSuccessful();
+            return bookCount;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    // SQL statement to create the suppliers table.
+    private static final String SQL_CREATE_SUPPLIERS_TABLE = "CREATE TABLE "
+            + SupplierEntry.TABLE_NAME + " ("
+            + SupplierEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL, "
+            + "UNIQUE (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + "));";
+
+    // Return the SQL statement to create the books table with the given name.
+    private static String createBooksTableSql(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
                 + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " TEXT NOT NULL, "
                 + BookEntry.COLUMN_BOOK_AUTHOR + " TEXT NOT NULL, "
-                + BookEntry.COLUMN_BOOK_PRICE + " REAL NOT NULL, "
+                + BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL, "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL, "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " INTEGER NOT NULL REFERENCES "
+                + SupplierEntry.TABLE_NAME + " (" + SupplierEntry._ID + "));";
+    }
+
+    // Create the indexes used to sort and filter the catalog.
+    private static void createBookIndexes(SQLiteDatabase database) {
+        // Covering indexes for sorting the catalog list by title or by author. They hold every
+        // book column of the list projection, so the list only has to look up the supplier.
+        database.execSQL("CREATE INDEX " + INDEX_BOOKS_PRODUCT_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ");");
+        database.execSQL("CREATE INDEX " + INDEX_BOOKS_AUTHOR + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ");");
+
+        // Index for filtering books by supplier.
+        database.execSQL("CREATE INDEX " + INDEX_BOOKS_SUPPLIER + " ON "
+                + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ");");
+
+        // Partial index that only holds the books that are out of stock, sorted by title.
+        database.execSQL("CREATE INDEX " + INDEX_BOOKS_OUT_OF_STOCK + " ON "
+                + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ") WHERE "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " = 0;");
+    }
+
+    // Create the sales ledger, and the table that tracks which sales have been compacted.
+    private static void createSalesTables(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SaleEntry.COLUMN_SALE_BOOK_ID + " INTEGER NOT NULL REFERENCES "
+                + BookEntry.TABLE_NAME + " (" + BookEntry._ID + ") ON DELETE CASCADE, "
+                + SaleEntry.COLUMN_SALE_AMOUNT + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_SALE_TIME + " INTEGER NOT NULL);");
+
+        // Index for the sales of a book. The sale ID is part of every index entry, so the
+        // sales that haven't been compacted yet are found by a range search.
+        database.execSQL("CREATE INDEX " + INDEX_SALES_BOOK + " ON " + SaleEntry.TABLE_NAME
+                + " (" + SaleEntry.COLUMN_SALE_BOOK_ID + ");");
+
+        database.execSQL("CREATE TABLE " + TABLE_SALES_COMPACTION + " ("
+                + BaseColumns._ID + " INTEGER PRIMARY KEY CHECK (" + BaseColumns._ID + " = 1), "
+                + COLUMN_LAST_SALE_ID + " INTEGER NOT NULL);");
+        database.execSQL("INSERT INTO " + TABLE_SALES_COMPACTION + " VALUES (1, 0);");
+    }
+
+    // Create the change log of the books, the table that holds its horizon, and the triggers
+    // that log new and deleted books, sales and changed suppliers. The trigger that logs
+    // updated books needs the versions of the books, and is created on its own.
+    private static void createChangeLog(SQLiteDatabase database) {
+        database.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ChangeEntry.COLUMN_CHANGE_BOOK_ID + " INTEGER NOT NULL, "
+                + ChangeEntry.COLUMN_CHANGE_OPERATION + " TEXT NOT NULL, "
+                + ChangeEntry.COLUMN_CHANGE_TIME + " INTEGER NOT NULL);");
+
+        // Index for the changes of a book, so the changes that are followed by a later change
+        // of the same book are found without sorting the log.
+        database.execSQL("CREATE INDEX " + INDEX_CHANGES_BOOK + " ON " + ChangeEntry.TABLE_NAME
+                + " (" + ChangeEntry.COLUMN_CHANGE_BOOK_ID + ");");
+
+        database.execSQL("CREATE TABLE " + TABLE_CHANGES_HORIZON + " ("
+                + BaseColumns._ID + " INTEGER PRIMARY KEY CHECK (" + BaseColumns._ID + " = 1), "
+                + COLUMN_HORIZON + " INTEGER NOT NULL);");
+        database.execSQL("INSERT INTO " + TABLE_CHANGES_HORIZON + " VALUES (1, 0);");
+
+        // Log new, changed and deleted books.
+        database.execSQL("CREATE TRIGGER books_changes_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN "
+                + logChangeSql("new." + BookEntry._ID, ChangeEntry.OPERATION_INSERT) + " END;");
+        createDeleteChangeTrigger(database);
+
+        // A sale changes the current stock of a book without writing its row.
+        database.execSQL("CREATE TRIGGER sales_changes_after_insert AFTER INSERT ON "
+                + SaleEntry.TABLE_NAME + " BEGIN "
+                + logChangeSql("new." + SaleEntry.COLUMN_SALE_BOOK_ID,
+                ChangeEntry.OPERATION_UPDATE) + " END;");
+
+        // A changed supplier changes the supplier columns of all of its books.
+        database.execSQL("CREATE TRIGGER suppliers_changes_after_update AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " ON " + SupplierEntry.TABLE_NAME
+                + " WHEN " + changedSql(SupplierEntry.COLUMN_SUPPLIER_NAME) + " OR "
+                + changedSql(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) + " BEGIN INSERT INTO "
+                + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_CHANGE_BOOK_ID + ", "
+                + ChangeEntry.COLUMN_CHANGE_OPERATION + ", " + ChangeEntry.COLUMN_CHANGE_TIME
+                + ") SELECT " + BookEntry._ID + ", '" + ChangeEntry.OPERATION_UPDATE + "', "
+                + SQL_NOW_MILLIS + " FROM " + BookEntry.TABLE_NAME + " WHERE "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = new." + SupplierEntry._ID + "; END;");
+    }
+
+    // Create the trigger that logs updated books. Updates that don't change any value aren't
+    // logged, and neither are updates that raise the version themselves, like the sales
+    // compactor: it moves sales that were logged already into the quantity, so the current
+    // stock stays the same.
+    private static void createUpdateChangeTrigger(SQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER books_changes_after_update AFTER UPDATE ON "
+                + BookEntry.TABLE_NAME + " WHEN old." + BookEntry.COLUMN_BOOK_VERSION
+                + " IS new." + BookEntry.COLUMN_BOOK_VERSION + " AND (" + SQL_BOOK_CHANGED
+                + ") BEGIN " + logChangeSql("new." + BookEntry._ID, ChangeEntry.OPERATION_UPDATE)
+                + " END;");
+    }
+
+    // Create the trigger that logs deleted books.
+    private static void createDeleteChangeTrigger(SQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER books_changes_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN "
+                + logChangeSql("old." + BookEntry._ID, ChangeEntry.OPERATION_DELETE) + " END;");
+    }
+
+    // SQL condition, for an update trigger of the books table, that any value of the book has
+    // changed.
+    private static final String SQL_BOOK_CHANGED = changedSql(BookEntry.COLUMN_BOOK_PRODUCT_NAME)
+            + " OR " + changedSql(BookEntry.COLUMN_BOOK_AUTHOR)
+            + " OR " + changedSql(BookEntry.COLUMN_BOOK_PRICE)
+            + " OR " + changedSql(BookEntry.COLUMN_BOOK_QUANTITY)
+            + " OR " + changedSql(BookEntry.COLUMN_BOOK_SUPPLIER_ID);
+
+    // Add the version column to the books table, and the triggers that raise it. An update
+    // that changes a value of the book raises its version, unless the update already did, like
+    // the sales compactor. A changed supplier raises the version of all of its books. Updates
+    // that don't change any value leave the version alone.
+    private static void createBookVersions(SQLiteDatabase database) {
+        database.execSQL("ALTER TABLE " + BookEntry.TABLE_NAME + " ADD COLUMN "
+                + BookEntry.COLUMN_BOOK_VERSION + " INTEGER NOT NULL DEFAULT 0;");
+
+        database.execSQL("CREATE TRIGGER books_version_after_update AFTER UPDATE ON "
+                + BookEntry.TABLE_NAME + " WHEN old." + BookEntry.COLUMN_BOOK_VERSION
+                + " IS new." + BookEntry.COLUMN_BOOK_VERSION + " AND (" + SQL_BOOK_CHANGED
+                + ") BEGIN UPDATE " + BookEntry.TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_VERSION + " = old." + BookEntry.COLUMN_BOOK_VERSION
+                + " + 1 WHERE " + BookEntry._ID + " = new." + BookEntry._ID + "; END;");
+
+        database.execSQL("CREATE TRIGGER suppliers_version_after_update AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " ON " + SupplierEntry.TABLE_NAME
+                + " WHEN " + changedSql(SupplierEntry.COLUMN_SUPPLIER_NAME) + " OR "
+                + changedSql(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) + " BEGIN UPDATE "
+                + BookEntry.TABLE_NAME + " SET " + BookEntry.COLUMN_BOOK_VERSION + " = "
+                + BookEntry.COLUMN_BOOK_VERSION + " + 1 WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                + " = new." + SupplierEntry._ID + "; END;");
+    }
+
+    // Return the SQL statement, for a trigger, that logs a change of the given book.
+    private static String logChangeSql(String bookId, String operation) {
+        return "INSERT INTO " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry.COLUMN_CHANGE_BOOK_ID + ", "
+                + ChangeEntry.COLUMN_CHANGE_OPERATION + ", "
+                + ChangeEntry.COLUMN_CHANGE_TIME + ") VALUES (" + bookId + ", '" + operation
+                + "', " + SQL_NOW_MILLIS + ");";
+    }
+
+    // Return the SQL condition, for an update trigger, that the given column has changed.
+    private static String changedSql(String column) {
+        return "old." + column + " IS NOT new." + column;
+    }
+
+    // Create the view that joins every book with its supplier, using the column names the
+    // books table had before the suppliers got their own table. The quantity column is given,
+    // since it is computed from the sales ledger from schema version 6 on, and so is the
+    // version column, which is left out of the views before schema version 8.
+    private static void createBooksView(SQLiteDatabase database, String quantity,
+                                        String version) {
+        database.execSQL("CREATE VIEW " + BookEntry.VIEW_NAME + " AS SELECT "
+                + bookColumn(BookEntry._ID) + ", "
+                + bookColumn(BookEntry.COLUMN_BOOK_PRODUCT_NAME) + ", "
+                + bookColumn(BookEntry.COLUMN_BOOK_AUTHOR) + ", "
+                + bookColumn(BookEntry.COLUMN_BOOK_PRICE) + ", "
+                + quantity + " AS " + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + bookColumn(BookEntry.COLUMN_BOOK_SUPPLIER_ID) + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME + " AS "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER
+                + " AS " + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER
+                + (version == null ? "" : ", " + version + " AS " + BookEntry.COLUMN_BOOK_VERSION)
+                + " FROM " + BookEntry.TABLE_NAME + " INNER JOIN " + SupplierEntry.TABLE_NAME
+                + " ON " + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " = "
+                + BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ";");
+    }
+
+    // Return the SQL expression that casts the given expression to an integer, which gives it
+    // integer affinity.
+    private static String castToInteger(String expression) {
+        return "CAST(" + expression + " AS INTEGER)";
+    }
+
+    // Return the given column of the books table, qualified and named as in the view.
+    private static String bookColumn(String column) {
+        return BookEntry.TABLE_NAME + "." + column + " AS " + column;
+    }
+
+    // Create the full-text search table for the title, author and supplier. The supplier's
+    // name lives in another table, so the search table keeps its own copy of the text, and
+    // triggers on both tables keep it in sync.
+    private static void createSearchTable(SQLiteDatabase database) {
+        database.execSQL("CREATE VIRTUAL TABLE " + BookEntry.FTS_TABLE_NAME + " USING fts4("
+                + SEARCH_COLUMNS + ");");
+
+        // Index a new book, together with the name of its supplier.
+        database.execSQL("CREATE TRIGGER books_fts_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN INSERT INTO " + BookEntry.FTS_TABLE_NAME
+                + " (docid, " + SEARCH_COLUMNS + ") SELECT new." + BookEntry._ID + ", new."
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", new." + BookEntry.COLUMN_BOOK_AUTHOR
+                + ", " + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = new." + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                + "; END;");
+
+        // Index the new text when the title, author or supplier of a book changes. Updates
+        // that only change the price or quantity, like sales, don't touch the index.
+        database.execSQL("CREATE TRIGGER books_fts_after_update AFTER UPDATE OF "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", " + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " ON " + BookEntry.TABLE_NAME
+                + " BEGIN UPDATE " + BookEntry.FTS_TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " = new."
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + " = new." + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + " = (SELECT "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry._ID + " = new." + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+                + ") WHERE docid = new." + BookEntry._ID + "; END;");
+
+        // Remove a deleted book from the index.
+        database.execSQL("CREATE TRIGGER books_fts_after_delete AFTER DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN DELETE FROM " + BookEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + BookEntry._ID + "; END;");
+
+        // Index the new name of a supplier for all of its books.
+        database.execSQL("CREATE TRIGGER suppliers_fts_after_update AFTER UPDATE OF "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " ON " + SupplierEntry.TABLE_NAME
+                + " BEGIN UPDATE " + BookEntry.FTS_TABLE_NAME + " SET "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + " = new." + SupplierEntry.COLUMN_SUPPLIER_NAME
+                + " WHERE docid IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.TABLE_NAME
+                + " WHERE " + BookEntry.COLUMN_BOOK_SUPPLIER_ID + " = new."
+                + SupplierEntry._ID + "); END;");
+
+        // Index the books that are already in the table.
+        database.execSQL("INSERT INTO " + BookEntry.FTS_TABLE_NAME + " (docid, "
+                + SEARCH_COLUMNS + ") SELECT " + BookEntry._ID + ", " + SEARCH_COLUMNS
+                + " FROM " + BookEntry.VIEW_NAME + ";");
+    }
+
+    // Drop the full-text search table together with the triggers that keep it in sync.
+    private static void dropSearchTable(SQLiteDatabase database) {
+        database.execSQL("DROP TRIGGER books_fts_after_insert;");
+        database.execSQL("DROP TRIGGER books_fts_after_update;");
+        database.execSQL("DROP TRIGGER books_fts_after_delete;");
+        database.execSQL("DROP TRIGGER suppliers_fts_after_update;");
+        database.execSQL("DROP TABLE " + BookEntry.FTS_TABLE_NAME + ";");
+    }
+
+    // Columns of the full-text search table.
+    private static final String SEARCH_COLUMNS = BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+            + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+            + BookEntry.COLUMN_BOOK_SUPPLIER;
+
+    // Move the suppliers into their own table (schema version 5). Every distinct pair of
+    // supplier and phone number becomes one supplier in a single pass over the books. The books
+    // are then copied into a new table with the same IDs, that refers to their supplier.
+    private static void migrateSuppliers(SQLiteDatabase database) {
+        String newTableName = BookEntry.TABLE_NAME + "_new";
+
+        // The old search table reads its text from the supplier column of the books table,
+        // so it is dropped and built again from the view.
+        dropSearchTriggers(database);
+        database.execSQL("DROP TABLE " + BookEntry.FTS_TABLE_NAME + ";");
+
+        database.execSQL(SQL_CREATE_SUPPLIERS_TABLE);
+        database.execSQL("INSERT INTO " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+                + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") SELECT DISTINCT "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + " FROM "
+                + BookEntry.TABLE_NAME + ";");
+
+        database.execSQL(createBooksTableSql(newTableName));
+        database.execSQL("INSERT INTO " + newTableName + " ("
+                + BookEntry._ID + ", "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ") SELECT "
+                + BookEntry.TABLE_NAME + "." + BookEntry._ID + ", "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + SupplierEntry.TABLE_NAME + "." + SupplierEntry._ID + " FROM "
+                + BookEntry.TABLE_NAME + " INNER JOIN " + SupplierEntry.TABLE_NAME + " ON "
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " = " + BookEntry.COLUMN_BOOK_SUPPLIER
+                + " AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " = "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + ";");
+        database.execSQL("DROP TABLE " + BookEntry.TABLE_NAME + ";");
+        database.execSQL("ALTER TABLE " + newTableName + " RENAME TO "
+                + BookEntry.TABLE_NAME + ";");
+
+        // Create the indexes, view and search table on the new tables.
+        createBookIndexes(database);
+        createBooksView(database, BookEntry.TABLE_NAME + "." + BookEntry.COLUMN_BOOK_QUANTITY,
+                null);
+        createSearchTable(database);
+    }
+
+    // Return the SQL statement to create the books table of schema version 4.
+    private static String createBooksTableSqlV4(String tableName) {
+        return "CREATE TABLE " + tableName + " ("
+                + BookEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + " TEXT NOT NULL, "
+                + BookEntry.COLUMN_BOOK_AUTHOR + " TEXT NOT NULL, "
+                + BookEntry.COLUMN_BOOK_PRICE + " INTEGER NOT NULL, "
                 + BookEntry.COLUMN_BOOK_QUANTITY + " INTEGER NOT NULL, "
                 + BookEntry.COLUMN_BOOK_SUPPLIER + " TEXT NOT NULL, "
                 + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + " TEXT NOT NULL);";
+    }
+
+    // Convert the prices from a REAL amount to a whole number of cents (schema version 4).
+    // SQLite can't change the type of a column, so the books are copied into a new table with
+    // the same IDs, which keeps the full-text search index valid. The whole upgrade runs in
+    // one transaction, so an interrupted upgrade leaves the old table as it was.
+    private static void migratePriceToCents(SQLiteDatabase database) {
+        String booksColumns = BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", %s, "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER;
+        String newTableName = BookEntry.TABLE_NAME + "_new";
+
+        // The triggers and indexes are dropped with the old table, so make sure the search
+        // triggers can't run while the old table is dropped.
+        dropSearchTriggers(database);
 
-        // Execute the SQL statement.
-        database.execSQL(SQL_CREATE_BOOKS_TABLE);
+        database.execSQL(createBooksTableSqlV4(newTableName));
+        database.execSQL("INSERT INTO " + newTableName + " (" + BookEntry._ID + ", "
+                + String.format(booksColumns, BookEntry.COLUMN_BOOK_PRICE) + ") SELECT "
+                + BookEntry._ID + ", " + String.format(booksColumns, "CAST(ROUND("
+                + BookEntry.COLUMN_BOOK_PRICE + " * 100) AS INTEGER)")
+                + " FROM " + BookEntry.TABLE_NAME + ";");
+        database.execSQL("DROP TABLE " + BookEntry.TABLE_NAME + ";");
+        database.execSQL("ALTER TABLE " + newTableName + " RENAME TO "
+                + BookEntry.TABLE_NAME + ";");
+
+        // Create the indexes and search triggers again on the new table.
+        createBookIndexesV2(database);
+        createSearchTriggersV3(database);
     }
 
-    // This is called when the database needs to be upgraded.
-    @Override
-    public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
-        // Nothing to do until the database version changes.
+    // Create the indexes used to sort and filter the catalog (schema version 2).
+    private static void createBookIndexesV2(SQLiteDatabase database) {
+        // Covering indexes for sorting the catalog list by title or by author. They hold every
+        // column of the list projection, so the list can be read without touching the table.
+        database.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKS_PRODUCT_NAME + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + ");");
+        database.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKS_AUTHOR + " ON "
+                + BookEntry.TABLE_NAME + " ("
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_PRICE + ", "
+                + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + ");");
+
+        // Index for filtering books by supplier.
+        database.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKS_SUPPLIER + " ON "
+                + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_SUPPLIER + ");");
+
+        // Partial index that only holds the books that are out of stock, sorted by title.
+        database.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BOOKS_OUT_OF_STOCK + " ON "
+                + BookEntry.TABLE_NAME + " (" + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ") WHERE "
+                + BookEntry.COLUMN_BOOK_QUANTITY + " = 0;");
+    }
+
+    // Create the full-text search table for the title, author and supplier (schema version 3).
+    // It is an external content table, so the text is only stored once in the books table,
+    // and triggers keep its index in sync with the books table.
+    private static void createSearchTableV3(SQLiteDatabase database) {
+        database.execSQL("CREATE VIRTUAL TABLE " + BookEntry.FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + BookEntry.TABLE_NAME + "\", "
+                + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER + ");");
+        createSearchTriggersV3(database);
+
+        // Index the books that are already in the table.
+        database.execSQL("INSERT INTO " + BookEntry.FTS_TABLE_NAME + " ("
+                + BookEntry.FTS_TABLE_NAME + ") VALUES ('rebuild');");
+    }
+
+    // Create the triggers that keep the full-text search index in sync with the books table.
+    private static void createSearchTriggersV3(SQLiteDatabase database) {
+        String searchColumns = BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + BookEntry.COLUMN_BOOK_SUPPLIER;
+        String newSearchValues = "new." + BookEntry._ID + ", "
+                + "new." + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+                + "new." + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+                + "new." + BookEntry.COLUMN_BOOK_SUPPLIER;
+
+        // Remove the old text from the index before a book is deleted or its text changes.
+        // Updates that only change the price or quantity, like sales, don't touch the index.
+        database.execSQL("CREATE TRIGGER books_fts_before_update BEFORE UPDATE OF "
+                + searchColumns + " ON " + BookEntry.TABLE_NAME + " BEGIN DELETE FROM "
+                + BookEntry.FTS_TABLE_NAME + " WHERE docid = old." + BookEntry._ID + "; END;");
+        database.execSQL("CREATE TRIGGER books_fts_before_delete BEFORE DELETE ON "
+                + BookEntry.TABLE_NAME + " BEGIN DELETE FROM "
+                + BookEntry.FTS_TABLE_NAME + " WHERE docid = old." + BookEntry._ID + "; END;");
+
+        // Add the new text to the index after a book is inserted or its text changes.
+        database.execSQL("CREATE TRIGGER books_fts_after_update AFTER UPDATE OF "
+                + searchColumns + " ON " + BookEntry.TABLE_NAME + " BEGIN INSERT INTO "
+                + BookEntry.FTS_TABLE_NAME + " (docid, " + searchColumns + ") VALUES ("
+                + newSearchValues + "); END;");
+        database.execSQL("CREATE TRIGGER books_fts_after_insert AFTER INSERT ON "
+                + BookEntry.TABLE_NAME + " BEGIN INSERT INTO "
+                + BookEntry.FTS_TABLE_NAME + " (docid, " + searchColumns + ") VALUES ("
+                + newSearchValues + "); END;");
+    }
+
+    // Drop the triggers that kept the full-text search index of schema version 3 in sync with
+    // the books table.
+    private static void dropSearchTriggers(SQLiteDatabase database) {
+        database.execSQL("DROP TRIGGER IF EXISTS books_fts_before_update;");
+        database.execSQL("DROP TRIGGER IF EXISTS books_fts_before_delete;");
+        database.execSQL("DROP TRIGGER IF EXISTS books_fts_after_update;");
+        database.execSQL("DROP TRIGGER IF EXISTS books_fts_after_insert;");
     }
 }
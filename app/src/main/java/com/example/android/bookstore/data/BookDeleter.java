@@ -0,0 +1,122 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+/**
+ * Deletes books through the provider, off the main thread.
+ * <p>
+ * Books that match a selection are deleted in chunks of a bounded size, lowest _id first, and
+ * the provider commits every chunk in a transaction of its own. Other writers, like a sale,
+ * only ever wait for one chunk, and a delete that is cancelled keeps the chunks it has already
+ * deleted. Deleting all books at once takes a single step that is much faster than deleting
+ * them one at a time, at the cost of holding the write lock until it is done.
+ */
+public final class BookDeleter {
+
+    // Default number of books deleted in one transaction.
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    // Receives the progress of a delete, on the thread that runs the delete.
+    public interface Listener {
+
+        // Called after every chunk, with the number of books deleted so far.
+        void onProgress(int rowsDeleted);
+    }
+
+    // Content resolver the books are deleted through.
+    private final ContentResolver contentResolver;
+
+    // Number of books deleted in one transaction.
+    private final int chunkSize;
+
+    // Receives the progress of the delete.
+    private final Listener listener;
+
+    // Whether the delete has been cancelled.
+    private volatile boolean cancelled;
+
+    /**
+     * Constructs a new {@link BookDeleter}.
+     *
+     * @param contentResolver content resolver to delete the books through
+     * @param chunkSize       number of books deleted in one transaction
+     * @param listener        receives the progress of the delete
+     */
+    public BookDeleter(ContentResolver contentResolver, int chunkSize, Listener listener) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Delete requires a valid chunk size.");
+        }
+        this.contentResolver = contentResolver;
+        this.chunkSize = chunkSize;
+        this.listener = listener;
+    }
+
+    /**
+     * Deletes the books that match the given selection, one chunk at a time. Must not be
+     * called on the main thread. If the delete is cancelled or the thread is interrupted, it
+     * stops after the current chunk.
+     *
+     * @param selection     of the books to delete, which may use the supplier columns, or null
+     *                      to delete all books
+     * @param selectionArgs arguments of the selection
+     * @return the number of books that were deleted
+     */
+    public int deleteBooks(String selection, String[] selectionArgs) {
+        Uri chunkUri = BookEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(BookEntry.QUERY_PARAMETER_LIMIT, String.valueOf(chunkSize))
+                .build();
+        int rowsDeleted = 0;
+        while (!shouldStop()) {
+            int chunkDeleted = contentResolver.delete(chunkUri, selection, selectionArgs);
+            rowsDeleted += chunkDeleted;
+            listener.onProgress(rowsDeleted);
+
+            // A chunk that isn't full was the last one.
+            if (chunkDeleted < chunkSize) {
+                break;
+            }
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Deletes all books, with their sales, in a single transaction. Must not be called on the
+     * main thread. It can't be cancelled once it has started.
+     *
+     * @return the number of books that were deleted
+     */
+    public int deleteAllBooks() {
+        if (shouldStop()) {
+            return 0;
+        }
+        int rowsDeleted = contentResolver.delete(BookEntry.CONTENT_URI, null, null);
+        listener.onProgress(rowsDeleted);
+        return rowsDeleted;
+    }
+
+    /**
+     * Cancels the delete. It stops after the chunk that is being deleted, and a delete of all
+     * books that hasn't started yet doesn't start.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Returns whether the delete was cancelled.
+     *
+     * @return true if {@link #cancel} was called
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Return whether the delete has to stop, because it was cancelled or its thread was
+    // interrupted.
+    private boolean shouldStop() {
+        return cancelled || Thread.currentThread().isInterrupted();
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Writes every book as CSV, in the format {@link BookImporter} reads: a header line with the
+ * column names, then one line per book, with the price in cents.
+ * <p>
+ * The books are read one page at a time, ordered by _id and starting after the last book of
+ * the previous page, so the export takes the same small amount of memory for any number of
+ * books and never holds a read open on the database for long. Each page is consistent; a book
+ * that is changed while the export runs is written as it was when its page was read. The
+ * database lock is only held while a page is read, and the page is written out after it is
+ * released, so a slow reader of the export doesn't keep the database from being restored.
+ */
+final class BookExporter {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = BookExporter.class.getSimpleName();
+
+    // Columns that are exported, in order.
+    static final String[] COLUMNS = {
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_PRODUCT_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER
+    };
+
+    // SQL statement used to read the next page of books.
+    private static final String SQL_BOOK_PAGE = "SELECT " + join(COLUMNS) + " FROM "
+            + BookEntry.VIEW_NAME + " WHERE " + BookEntry._ID + " > ? ORDER BY "
+            + BookEntry._ID + " LIMIT ?;";
+
+    // Database helper the books are read through.
+    private final BookDbHelper dbHelper;
+
+    // Held while a page is read, so the database isn't replaced meanwhile.
+    private final Lock databaseLock;
+
+    // Number of books read at a time.
+    private final int pageSize;
+
+    /**
+     * Constructs a new {@link BookExporter}.
+     *
+     * @param dbHelper     database helper to read the books through
+     * @param databaseLock held while a page of books is read
+     * @param pageSize     number of books read at a time
+     */
+    BookExporter(BookDbHelper dbHelper, Lock databaseLock, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Export requires a valid page size.");
+        }
+        this.dbHelper = dbHelper;
+        this.databaseLock = databaseLock;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Starts writing the books into the write end of a pipe on a background thread. The
+     * reader of the pipe gets the first books right away. If the export fails, the pipe is
+     * closed with an error, so the reader can tell an incomplete export from a complete one.
+     *
+     * @param pipe write end of the pipe. It is closed when the export ends.
+     */
+    void exportInBackground(final ParcelFileDescriptor pipe) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Writer out = new BufferedWriter(new OutputStreamWriter(
+                        new ParcelFileDescriptor.AutoCloseOutputStream(pipe),
+                        Charset.forName("UTF-8")));
+                try {
+                    export(out);
+                    out.close();
+                } catch (IOException | RuntimeException e) {
+                    // The reader may simply have stopped reading.
+                    Log.w(LOG_TAG, "Export stopped", e);
+                    closeWithError(pipe, e.toString());
+                }
+            }
+        }, "BookExport").start();
+    }
+
+    // Close the pipe, telling the reader the export failed.
+    private static void closeWithError(ParcelFileDescriptor pipe, String message) {
+        try {
+            pipe.closeWithError(message);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to close export pipe", e);
+        }
+    }
+
+    /**
+     * Writes every book to the given writer. The writer isn't flushed or closed.
+     *
+     * @param out writer to write the books to
+     * @return the number of books written
+     * @throws IOException if the books can't be written
+     */
+    int export(Writer out) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        String[] args = new String[]{"0", String.valueOf(pageSize)};
+        int rows = 0;
+
+        writeRecord(out, COLUMNS);
+        String[] record = new String[COLUMNS.length];
+        StringWriter page = new StringWriter();
+        while (true) {
+            int pageRows = 0;
+            // The database is looked up for every page, since it may have been restored
+            // since the last one.
+            databaseLock.lock();
+            try {
+                SQLiteDatabase database = dbHelper.getReadableDatabase();
+                Cursor cursor = database.rawQuery(SQL_BOOK_PAGE, args);
+                try {
+                    while (cursor.moveToNext()) {
+                        for (int column = 0; column < record.length; column++) {
+                            record[column] = cursor.getString(column);
+                        }
+                        writeRecord(page, record);
+                        pageRows++;
+                    }
+                    if (pageRows > 0) {
+                        cursor.moveToLast();
+                        args[0] = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } finally {
+                databaseLock.unlock();
+            }
+            out.append(page.getBuffer());
+            page.getBuffer().setLength(0);
+
+            rows += pageRows;
+            if (pageRows < pageSize) {
+                break;
+            }
+        }
+
+        Log.i(LOG_TAG, "Exported " + rows + " books in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return rows;
+    }
+
+    // Write one CSV record. Fields that contain a comma, a quote or a line break are put in
+    // quotes, with their quotes doubled. Null values are written as empty fields.
+    static void writeRecord(Writer out, String[] fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            String field = fields[i];
+            if (field == null) {
+                continue;
+            }
+            if (needsQuotes(field)) {
+                out.write('"');
+                out.write(field.replace("\"", "\"\""));
+                out.write('"');
+            } else {
+                out.write(field);
+            }
+        }
+        out.write('\n');
+    }
+
+    // Return whether the field has to be quoted.
+    private static boolean needsQuotes(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '"' || c == '\r' || c == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Return the column names separated by commas.
+    private static String join(String[] columns) {
+        StringBuilder joined = new StringBuilder();
+        for (String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+            joined.append(column);
+        }
+        return joined.toString();
+    }
+}
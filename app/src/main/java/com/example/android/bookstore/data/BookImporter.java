@@ -0,0 +1,289 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Imports books from a CSV or JSON file through the provider.
+ * <p>
+ * The file is read one book at a time, and only one batch of books is held in memory. Each
+ * book is checked with the same rules as a book inserted through the provider, and books that
+ * fail are reported and skipped. Every batch is inserted with a single bulk insert, which the
+ * provider commits in one transaction.
+ * <p>
+ * Books are described by the columns of {@link BookEntry}: a CSV file starts with a header
+ * line naming the columns, and a JSON file is an array of objects with the columns as keys.
+ * The price is a whole number of cents. Other columns are ignored.
+ */
+public final class BookImporter {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = BookImporter.class.getSimpleName();
+
+    // Default number of books inserted in one transaction.
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    // Columns of a book that can be imported.
+    private static final Set<String> TEXT_COLUMNS = new HashSet<>(Arrays.asList(
+            BookEntry.COLUMN_BOOK_PRODUCT_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER));
+    private static final Set<String> NUMBER_COLUMNS = new HashSet<>(Arrays.asList(
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY));
+
+    // Format of the file to import.
+    public enum Format {
+        CSV,
+        JSON
+    }
+
+    // Receives the progress of an import, on the thread that runs the import.
+    public interface Listener {
+
+        // Called after every batch, with the number of books read, imported and rejected so far.
+        void onProgress(int rowsRead, int rowsImported, int rowsRejected);
+
+        // Called for every book that is rejected, with the line of a CSV file the book starts
+        // on, or the position of the book in the array of a JSON file, both counting from 1.
+        void onRowRejected(int row, String reason);
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+
+        // Number of books read from the file, imported, and rejected.
+        public final int rowsRead;
+        public final int rowsImported;
+        public final int rowsRejected;
+
+        // How long the import took, in milliseconds.
+        public final long elapsedMillis;
+
+        private Result(int rowsRead, int rowsImported, int rowsRejected, long elapsedMillis) {
+            this.rowsRead = rowsRead;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * Returns the import rate.
+         *
+         * @return the number of books read per second
+         */
+        public double rowsPerSecond() {
+            return elapsedMillis == 0 ? rowsRead : rowsRead * 1000.0 / elapsedMillis;
+        }
+    }
+
+    // Content resolver the books are inserted through.
+    private final ContentResolver contentResolver;
+
+    // Number of books inserted in one transaction.
+    private final int batchSize;
+
+    // Receives the progress of the import.
+    private final Listener listener;
+
+    // Books of the current batch, and how many there are.
+    private final ContentValues[] batch;
+    private int batchCount;
+
+    // Progress of the import.
+    private int rowsRead;
+    private int rowsImported;
+    private int rowsRejected;
+
+    /**
+     * Constructs a new {@link BookImporter}. An importer runs a single import.
+     *
+     * @param contentResolver content resolver to insert the books through
+     * @param batchSize       number of books inserted in one transaction
+     * @param listener        receives the progress of the import
+     */
+    public BookImporter(ContentResolver contentResolver, int batchSize, Listener listener) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Import requires a valid batch size.");
+        }
+        this.contentResolver = contentResolver;
+        this.batchSize = batchSize;
+        this.listener = listener;
+        batch = new ContentValues[batchSize];
+    }
+
+    /**
+     * Imports the books from the given stream. Must not be called on the main thread. If the
+     * thread is interrupted, the import stops after the current batch.
+     *
+     * @param in     stream of the file, in UTF-8. It is not closed.
+     * @param format of the file
+     * @return the outcome of the import
+     * @throws IOException if the file can't be read or isn't valid CSV or JSON, or the import
+     *                     was interrupted. The batches before the error stay imported.
+     */
+    public Result importBooks(InputStream in, Format format) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, Charset.forName("UTF-8")));
+        if (format == Format.CSV) {
+            importCsv(new CsvReader(reader));
+        } else {
+            importJson(new JsonReader(reader));
+        }
+        insertBatch();
+
+        Result result = new Result(rowsRead, rowsImported, rowsRejected,
+                SystemClock.elapsedRealtime() - start);
+        Log.i(LOG_TAG, "Imported " + rowsImported + " of " + rowsRead + " books in "
+                + result.elapsedMillis + " ms (" + Math.round(result.rowsPerSecond())
+                + " books/s)");
+        return result;
+    }
+
+    // Read the books of a CSV file. The first record names the columns.
+    private void importCsv(CsvReader csv) throws IOException {
+        String[] columns = csv.readRecord();
+        if (columns == null) {
+            return;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = columns[i].trim();
+        }
+
+        while (true) {
+            int line = csv.getLineNumber();
+            String[] record = csv.readRecord();
+            if (record == null) {
+                break;
+            }
+            // Skip blank lines.
+            if (record.length == 1 && record[0].isEmpty()) {
+                continue;
+            }
+
+            ContentValues values = new ContentValues();
+            String error = null;
+            for (int i = 0; i < record.length && i < columns.length && error == null; i++) {
+                error = putValue(values, columns[i], record[i]);
+            }
+            addBook(values, error, line);
+        }
+    }
+
+    // Read the books of a JSON file, which is an array of objects.
+    private void importJson(JsonReader json) throws IOException {
+        json.beginArray();
+        while (json.hasNext()) {
+            ContentValues values = new ContentValues();
+            String error = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                String column = json.nextName();
+                if (json.peek() == JsonToken.NULL) {
+                    json.nextNull();
+                    continue;
+                }
+                if (!TEXT_COLUMNS.contains(column) && !NUMBER_COLUMNS.contains(column)) {
+                    json.skipValue();
+                    continue;
+                }
+                // Numbers are read as text too, and parsed like the values of a CSV file. Any
+                // other value, like true or an object, rejects the book.
+                JsonToken token = json.peek();
+                if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                    json.skipValue();
+                    if (error == null) {
+                        error = "Invalid " + column + ": " + token;
+                    }
+                    continue;
+                }
+                String value = json.nextString();
+                if (error == null) {
+                    error = putValue(values, column, value);
+                }
+            }
+            json.endObject();
+            addBook(values, error, rowsRead + 1);
+        }
+        json.endArray();
+    }
+
+    // Put the value of a column into the book values. Return the reason the value is invalid,
+    // or null if it is valid or the column isn't imported.
+    private static String putValue(ContentValues values, String column, String value) {
+        if (TEXT_COLUMNS.contains(column)) {
+            values.put(column, value);
+        } else if (NUMBER_COLUMNS.contains(column)) {
+            try {
+                values.put(column, Long.parseLong(value.trim()));
+            } catch (NumberFormatException e) {
+                return "Invalid " + column + ": " + value;
+            }
+        }
+        return null;
+    }
+
+    // Check a book that was read from the file, and add it to the batch if it is valid. The
+    // row is where the book is in the file, and is only used to report a rejected book.
+    private void addBook(ContentValues values, String error, int row) throws IOException {
+        rowsRead++;
+        if (error == null) {
+            try {
+                BookProvider.validateBook(values);
+            } catch (IllegalArgumentException e) {
+                error = e.getMessage();
+            }
+        }
+        if (error != null) {
+            rowsRejected++;
+            listener.onRowRejected(row, error);
+            return;
+        }
+
+        batch[batchCount++] = values;
+        if (batchCount == batchSize) {
+            insertBatch();
+        }
+    }
+
+    // Insert the books of the current batch in one transaction, and report the progress.
+    private void insertBatch() throws IOException {
+        if (batchCount > 0) {
+            ContentValues[] books = batchCount == batchSize
+                    ? batch : Arrays.copyOf(batch, batchCount);
+            int inserted = contentResolver.bulkInsert(BookEntry.CONTENT_URI, books);
+
+            // Books the database refused are logged by the provider.
+            rowsImported += inserted;
+            rowsRejected += batchCount - inserted;
+            Arrays.fill(batch, null);
+            batchCount = 0;
+        }
+        listener.onProgress(rowsRead, rowsImported, rowsRejected);
+
+        if (Thread.interrupted()) {
+            throw new InterruptedIOException("Import was interrupted after " + rowsImported
+                    + " books.");
+        }
+    }
+}
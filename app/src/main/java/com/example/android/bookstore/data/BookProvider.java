@@ -1,25 +1,131 @@
 package com.example.android.bookstore.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.bookstore.R;
 import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.ChangeEntry;
+import com.example.android.bookstore.data.BookContract.SaleEntry;
+import com.example.android.bookstore.data.BookContract.StatsEntry;
+import com.example.android.bookstore.data.BookContract.SupplierEntry;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class BookProvider extends ContentProvider {
 
     // Database helper object.
     private BookDbHelper dbHelper;
 
+    // Lock that keeps the database from being replaced while it is used. Every call that uses
+    // the database holds the read lock, and so do the compactors and the export while they
+    // read it. A restore holds the write lock.
+    private final ReentrantReadWriteLock databaseLock = new ReentrantReadWriteLock();
+
+    // Compiled statements for the single book calls, which are the most frequent ones.
+    private StatementCache statementCache;
+
+    // Sends the change notifications, coalescing bursts of changes.
+    private ChangeNotifier changeNotifier;
+
+    // How long changes are collected before listeners are notified, in milliseconds.
+    private static final long NOTIFY_WINDOW_MILLIS = 100;
+
+    // Folds the sales ledger into the quantities of the books in the background.
+    private SalesCompactor salesCompactor;
+
+    // Number of sales after which the ledger is compacted right away, and how long after a
+    // sale it is compacted at the latest, in milliseconds.
+    private static final int COMPACT_AFTER_SALES = 256;
+    private static final long COMPACT_DELAY_MILLIS = 10000;
+
+    // Write generation of the database. It goes up after every committed write, so results
+    // cached at an older generation are known to be out of date.
+    private final AtomicLong writeGeneration = new AtomicLong();
+
+    // Keeps the change log of the books small in the background.
+    private ChangeLogCompactor changeLogCompactor;
+
+    // Largest number of changes the change log keeps, number of writes after which it is
+    // compacted right away, and how long after a write it is compacted at the latest, in
+    // milliseconds.
+    private static final int MAX_CHANGES = 10000;
+    private static final int COMPACT_CHANGES_AFTER_WRITES = 1000;
+    private static final long COMPACT_CHANGES_DELAY_MILLIS = 30000;
+
+    // Cache of the most recently read single books, so reopening a book doesn't have to read
+    // the database.
+    private BookRowCache rowCache;
+
+    // Largest number of single books that are cached.
+    private static final int ROW_CACHE_SIZE = 256;
+
+    // Cache of the results of book list queries, valid until the next write.
+    private QueryCache queryCache;
+
+    // Streams the books as CSV for the export URI.
+    private BookExporter bookExporter;
+
+    // Number of books the export reads at a time.
+    private static final int EXPORT_PAGE_SIZE = 1000;
+
+    // Latency and throughput of the provider's operations, per URI.
+    private final ProviderMetrics metrics = new ProviderMetrics(BOOK, METRICS_URI_NAMES);
+
+    // Number of slow queries the provider keeps.
+    private static final int SLOW_QUERY_LOG_CAPACITY = 32;
+
+    // Most recent queries that took longer than the threshold, with their query plans.
+    private SlowQueryLog slowQueryLog;
+
+    // Cached inventory statistics, for the whole inventory and per supplier.
+    private volatile CachedRows cachedStats;
+    private volatile CachedRows cachedSupplierStats;
+
+    // URIs changed by the batch running on the current thread, or null if no batch is running.
+    // Notifications for these URIs are held back until the batch has been committed.
+    private final ThreadLocal<Set<Uri>> batchChangedUris = new ThreadLocal<>();
+
     // Tag for the log messages.
     private static final String LOG_TAG = BookProvider.class.getSimpleName();
 
@@ -29,6 +135,133 @@ public class BookProvider extends ContentProvider {
     // URI matcher code for the content URI for a single book in the books table.
     private static final int BOOK_ID = 101;
 
+    // SQL statement used to insert a book when many books are inserted at once.
+    private static final String SQL_INSERT_BOOK = "INSERT INTO " + BookEntry.TABLE_NAME + " ("
+            + BookEntry.COLUMN_BOOK_PRODUCT_NAME + ", "
+            + BookEntry.COLUMN_BOOK_AUTHOR + ", "
+            + BookEntry.COLUMN_BOOK_PRICE + ", "
+            + BookEntry.COLUMN_BOOK_QUANTITY + ", "
+            + BookEntry.COLUMN_BOOK_SUPPLIER_ID + ") VALUES (?, ?, ?, ?, ?);";
+
+    // SQL statement used to delete a single book.
+    private static final String SQL_DELETE_BOOK = "DELETE FROM " + BookEntry.TABLE_NAME
+            + " WHERE " + BookEntry._ID + " = ?;";
+
+    // SQL statement used to sell copies of a book, without letting the stock go below zero.
+    // The sale is appended to the ledger, so the book's row isn't written.
+    private static final String SQL_SELL_BOOK = "INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+            + SaleEntry.COLUMN_SALE_BOOK_ID + ", "
+            + SaleEntry.COLUMN_SALE_AMOUNT + ", "
+            + SaleEntry.COLUMN_SALE_TIME + ") SELECT " + BookEntry._ID + ", ?, ? FROM "
+            + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ? AND "
+            + BookDbHelper.SQL_CURRENT_QUANTITY + " >= ?;";
+
+    // SQL statement used to read the current stock of a book.
+    private static final String SQL_BOOK_QUANTITY = "SELECT " + BookDbHelper.SQL_CURRENT_QUANTITY
+            + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ?;";
+
+    // SQL statement used to read the current version of a single book.
+    private static final String SQL_BOOK_VERSION = "SELECT " + BookDbHelper.SQL_CURRENT_VERSION
+            + " FROM " + BookEntry.TABLE_NAME + " WHERE " + BookEntry._ID + " = ?;";
+
+    // SQL statements used to find a supplier by name and phone number, and to add a new one.
+    private static final String SQL_FIND_SUPPLIER = "SELECT " + SupplierEntry._ID + " FROM "
+            + SupplierEntry.TABLE_NAME + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME
+            + " = ? AND " + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + " = ?;";
+    private static final String SQL_INSERT_SUPPLIER = "INSERT INTO " + SupplierEntry.TABLE_NAME
+            + " (" + SupplierEntry.COLUMN_SUPPLIER_NAME + ", "
+            + SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER + ") VALUES (?, ?);";
+
+    // SQL statement used to remove a supplier that was added for a book that couldn't be
+    // inserted.
+    private static final String SQL_DELETE_SUPPLIER = "DELETE FROM " + SupplierEntry.TABLE_NAME
+            + " WHERE " + SupplierEntry._ID + " = ?;";
+
+    // SQL statement used to read the supplier of a book.
+    private static final String SQL_BOOK_SUPPLIER = "SELECT " + BookEntry.COLUMN_BOOK_SUPPLIER
+            + ", " + BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER + " FROM " + BookEntry.VIEW_NAME
+            + " WHERE " + BookEntry._ID + " = ?;";
+
+    // URI matcher code for the content URI for searching the books table.
+    private static final int BOOK_SEARCH = 102;
+
+    // URI matcher codes for the content URIs for the inventory statistics.
+    private static final int STATS = 103;
+    private static final int STATS_SUPPLIER = 104;
+
+    // URI matcher codes for the content URIs for the suppliers table and a single supplier.
+    private static final int SUPPLIER = 105;
+    private static final int SUPPLIER_ID = 106;
+
+    // URI matcher code for the content URI for the sales ledger.
+    private static final int SALE = 107;
+
+    // URI matcher code for the content URI for exporting the books.
+    private static final int BOOK_EXPORT = 108;
+
+    // URI matcher code for the content URI for the change log of the books.
+    private static final int CHANGE = 109;
+
+    // Names of the URIs in the metrics, in the order of their match codes.
+    private static final String[] METRICS_URI_NAMES = {"books", "book", "search", "stats",
+            "stats_supplier", "suppliers", "supplier", "sales", "export", "changes"};
+
+    // SQL statement used to read the changes after a sequence number.
+    private static final String SQL_CHANGES_SINCE = " FROM " + ChangeEntry.TABLE_NAME
+            + " WHERE " + ChangeEntry._ID + " > ? ORDER BY " + ChangeEntry._ID + ";";
+
+    // SQL statement used to read the change log horizon, and the last sequence number.
+    private static final String SQL_CHANGES_HORIZON = "SELECT " + BookDbHelper.COLUMN_HORIZON
+            + " FROM " + BookDbHelper.TABLE_CHANGES_HORIZON + ";";
+    private static final String SQL_LAST_CHANGE = "SELECT MAX(IFNULL((SELECT MAX("
+            + ChangeEntry._ID + ") FROM " + ChangeEntry.TABLE_NAME + "), 0), "
+            + BookDbHelper.COLUMN_HORIZON + ") FROM " + BookDbHelper.TABLE_CHANGES_HORIZON + ";";
+
+    // Columns of the change log.
+    private static final String[] CHANGE_COLUMNS = new String[]{ChangeEntry._ID,
+            ChangeEntry.COLUMN_CHANGE_BOOK_ID, ChangeEntry.COLUMN_CHANGE_OPERATION,
+            ChangeEntry.COLUMN_CHANGE_TIME};
+
+    // SQL statement used to compute the inventory statistics in a single pass over the books.
+    private static final String SQL_STATS_COLUMNS = "SELECT "
+            + "IFNULL(SUM(" + BookEntry.COLUMN_BOOK_PRICE + " * " + BookEntry.COLUMN_BOOK_QUANTITY
+            + "), 0) AS " + StatsEntry.COLUMN_STOCK_VALUE + ", "
+            + "IFNULL(SUM(" + BookEntry.COLUMN_BOOK_QUANTITY + "), 0) AS "
+            + StatsEntry.COLUMN_UNITS + ", "
+            + "COUNT(*) AS " + StatsEntry.COLUMN_TITLES + ", "
+            + "IFNULL(SUM(" + BookEntry.COLUMN_BOOK_QUANTITY + " = 0), 0) AS "
+            + StatsEntry.COLUMN_OUT_OF_STOCK;
+    private static final String SQL_STATS = SQL_STATS_COLUMNS
+            + " FROM " + BookEntry.VIEW_NAME + ";";
+    private static final String SQL_STATS_SUPPLIER = SQL_STATS_COLUMNS + ", "
+            + BookEntry.COLUMN_BOOK_SUPPLIER + " AS " + StatsEntry.COLUMN_SUPPLIER
+            + " FROM " + BookEntry.VIEW_NAME
+            + " GROUP BY " + BookEntry.COLUMN_BOOK_SUPPLIER_ID
+            + " ORDER BY " + BookEntry.COLUMN_BOOK_SUPPLIER + ";";
+
+    // Ranking of a search match: how often the search words were found in the book. Every
+    // match adds four numbers to the output of offsets(), so longer output is a better match.
+    private static final String SEARCH_RANK = "search_rank";
+    private static final String SQL_SEARCH_MATCHES = "(SELECT docid, "
+            + "length(offsets(" + BookEntry.FTS_TABLE_NAME + ")) - "
+            + "length(replace(offsets(" + BookEntry.FTS_TABLE_NAME + "), ' ', '')) AS "
+            + SEARCH_RANK + " FROM " + BookEntry.FTS_TABLE_NAME + " WHERE "
+            + BookEntry.FTS_TABLE_NAME + " MATCH ?) AS search";
+
+    // Sort order for reading the books one page at a time: a single column and a direction.
+    private static final Pattern PAGE_SORT_ORDER = Pattern.compile(
+            "\\s*(\\w+)(?:\\s+(ASC|DESC))?\\s*", Pattern.CASE_INSENSITIVE);
+
+    // Columns the books can be sorted by when they are read one page at a time.
+    private static final Set<String> PAGE_SORT_COLUMNS = new HashSet<>(Arrays.asList(
+            BookEntry._ID,
+            BookEntry.COLUMN_BOOK_PRODUCT_NAME,
+            BookEntry.COLUMN_BOOK_AUTHOR,
+            BookEntry.COLUMN_BOOK_PRICE,
+            BookEntry.COLUMN_BOOK_QUANTITY,
+            BookEntry.COLUMN_BOOK_SUPPLIER,
+            BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER));
+
     // UriMatcher object to match a content URI to a corresponding code.
     private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -40,20 +273,86 @@ public class BookProvider extends ContentProvider {
         // Sets the integer value to a single row in the books table.
         uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKSTORE
                 + "/#", BOOK_ID);
+
+        // Sets the integer value for searching the books table.
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKSTORE
+                + "/" + BookContract.PATH_SEARCH, BOOK_SEARCH);
+
+        // Sets the integer values for the inventory statistics.
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKSTORE
+                + "/" + BookContract.PATH_STATS, STATS);
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKSTORE
+                + "/" + BookContract.PATH_STATS + "/" + BookContract.PATH_STATS_SUPPLIER,
+                STATS_SUPPLIER);
+
+        // Sets the integer values for the suppliers table and a single supplier.
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SUPPLIERS, SUPPLIER);
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SUPPLIERS + "/#",
+                SUPPLIER_ID);
+
+        // Sets the integer value for the sales ledger.
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_SALES, SALE);
+
+        // Sets the integer value for exporting the books.
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKSTORE
+                + "/" + BookContract.PATH_EXPORT, BOOK_EXPORT);
+
+        // Sets the integer value for the change log of the books.
+        uriMatcher.addURI(BookContract.CONTENT_AUTHORITY, BookContract.PATH_BOOKSTORE
+                + "/" + BookContract.PATH_CHANGES, CHANGE);
     }
 
     // Initialize the provider and the database helper object.
     @Override
     public boolean onCreate() {
+        slowQueryLog = new SlowQueryLog(SLOW_QUERY_LOG_CAPACITY, Objects.requireNonNull(
+                getContext()).getResources().getInteger(R.integer.slow_query_millis));
         dbHelper = new BookDbHelper(getContext());
+        statementCache = new StatementCache(dbHelper);
+        changeNotifier = new ChangeNotifier(
+                Objects.requireNonNull(getContext()).getContentResolver(),
+                BookEntry.CONTENT_URI, NOTIFY_WINDOW_MILLIS);
+        salesCompactor = new SalesCompactor(dbHelper, databaseLock.readLock(),
+                COMPACT_AFTER_SALES, COMPACT_DELAY_MILLIS);
+        changeLogCompactor = new ChangeLogCompactor(dbHelper, databaseLock.readLock(),
+                MAX_CHANGES, COMPACT_CHANGES_AFTER_WRITES, COMPACT_CHANGES_DELAY_MILLIS);
+        rowCache = new BookRowCache(ROW_CACHE_SIZE);
+        bookExporter = new BookExporter(dbHelper, databaseLock.readLock(), EXPORT_PAGE_SIZE);
+        queryCache = new QueryCache(Objects.requireNonNull(getContext()).getResources()
+                .getInteger(R.integer.query_cache_kilobytes) * 1024);
         return true;
     }
 
-    // Perform the query for the given URI.
+    // Release the compiled statements and close the database.
+    @Override
+    public void shutdown() {
+        changeNotifier.close();
+        salesCompactor.close();
+        changeLogCompactor.close();
+        statementCache.close();
+        dbHelper.close();
+        super.shutdown();
+    }
+
+    // Perform the query for the given URI, holding the read lock of the database.
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
                         @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        databaseLock.readLock().lock();
+        try {
+            return queryLocked(uri, projection, selection, selectionArgs, sortOrder);
+        } finally {
+            slowQueryLog.clearLastQuery();
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Perform the query for the given URI.
+    private Cursor queryLocked(Uri uri, String[] projection, String selection,
+                               String[] selectionArgs, String sortOrder) {
+        long start = System.nanoTime();
+
         // Get readable database
         SQLiteDatabase database = dbHelper.getReadableDatabase();
 
@@ -64,31 +363,356 @@ public class BookProvider extends ContentProvider {
         int match = uriMatcher.match(uri);
         switch (match) {
             case BOOK:
-                // For the BOOK code, query the books table directly.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // For the BOOK code, query the books, from the cache if the same query already
+                // ran since the last write.
+                cursor = queryBooks(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
                 break;
             case BOOK_ID:
-                // For the BOOK_ID code, extract out the ID from the URI.
-                selection = BookEntry._ID + "=?";
+                // For the BOOK_ID code, extract out the ID from the URI, and return the book from
+                // the cache if it is there.
+                cursor = queryBookById(database, ContentUris.parseId(uri), projection);
+                break;
+            case BOOK_SEARCH:
+                // For the BOOK_SEARCH code, match the search text against the search table.
+                cursor = searchBooks(database, uri, projection, selection, selectionArgs,
+                        sortOrder);
+                break;
+            case STATS:
+                // For the STATS code, return the statistics of the whole inventory.
+                cursor = queryStats(database, false);
+                break;
+            case STATS_SUPPLIER:
+                // For the STATS_SUPPLIER code, return the statistics of each supplier.
+                cursor = queryStats(database, true);
+                break;
+            case SUPPLIER:
+                // For the SUPPLIER code, query the suppliers table directly.
+                cursor = queryTable(database, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                break;
+            case SUPPLIER_ID:
+                // For the SUPPLIER_ID code, query the supplier with the ID from the URI.
+                selection = SupplierEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-
-                // This will perform a query on the books table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(BookEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = queryTable(database, SupplierEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                break;
+            case SALE:
+                // For the SALE code, query the sales ledger directly.
+                cursor = queryTable(database, SaleEntry.TABLE_NAME, projection, selection,
+                        selectionArgs, sortOrder, null);
+                break;
+            case CHANGE:
+                // For the CHANGE code, return the changes after the given sequence number.
+                cursor = queryChanges(database, uri, projection);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
         // Set notification URI on the Cursor, so that if the data changes the cursor can be updated.
-        cursor.setNotificationUri(Objects.requireNonNull(getContext()).getContentResolver(), uri);
+        // Search results and statistics can change with any book, so they watch the whole
+        // books table.
+        Uri notificationUri = match == BOOK || match == BOOK_ID || match == SUPPLIER
+                || match == SUPPLIER_ID || match == SALE ? uri : BookEntry.CONTENT_URI;
+        cursor.setNotificationUri(Objects.requireNonNull(getContext()).getContentResolver(),
+                notificationUri);
+
+        // Counting the rows runs the query, which the caller would do next anyway, so the
+        // latency includes reading the result.
+        int rows = cursor.getCount();
+        long elapsedNanos = System.nanoTime() - start;
+        metrics.record(ProviderMetrics.QUERY, match, elapsedNanos, rows);
+        if (slowQueryLog.isSlow(elapsedNanos)) {
+            slowQueryLog.logLastQuery(database, uri.toString(), elapsedNanos, rows);
+        }
 
         // Return the cursor.
         return cursor;
     }
 
+    // Return the changes of the books after the sequence number in the URI, oldest first. If
+    // the reader is behind the change log horizon, or gave no sequence number, return a single
+    // resync row with the last sequence number instead. Both are read in one transaction, so
+    // the horizon can't move between them.
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection) {
+        String since = uri.getQueryParameter(ChangeEntry.QUERY_PARAMETER_SINCE);
+        long sinceSequence = -1;
+        if (since != null) {
+            try {
+                sinceSequence = Long.parseLong(since);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Changes require a valid sequence number.", e);
+            }
+        }
+        String[] columns = projection == null ? CHANGE_COLUMNS : projection;
+
+        database.beginTransactionNonExclusive();
+        try {
+            Cursor cursor;
+            long horizon = DatabaseUtils.longForQuery(database, SQL_CHANGES_HORIZON, null);
+            if (sinceSequence < horizon) {
+                long lastSequence = DatabaseUtils.longForQuery(database, SQL_LAST_CHANGE, null);
+                MatrixCursor resync = new MatrixCursor(columns, 1);
+                resync.newRow()
+                        .add(ChangeEntry._ID, lastSequence)
+                        .add(ChangeEntry.COLUMN_CHANGE_OPERATION, ChangeEntry.OPERATION_RESYNC);
+                cursor = resync;
+            } else {
+                cursor = rawQuery(database, "SELECT " + TextUtils.join(", ", columns)
+                        + SQL_CHANGES_SINCE, new String[]{String.valueOf(sinceSequence)});
+                // Fill the cursor window while the transaction is still open.
+                cursor.getCount();
+            }
+            database.setTransactionSuccessful();
+            return cursor;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    // Query the books, or a page of them. Results are cached by their normalized query until the
+    // next write, so reloading the same list doesn't read the database again.
+    private Cursor queryBooks(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        // Results read inside a transaction may not be committed, so they aren't cached.
+        if (database.inTransaction()) {
+            return readBooks(database, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        String key = QueryCache.key(uri.getEncodedQuery(), projection, selection, selectionArgs,
+                sortOrder);
+        long generation = writeGeneration.get();
+        Cursor cursor = queryCache.get(key, generation);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        // Results too large for the cache are returned as they are, without copying them.
+        cursor = readBooks(database, uri, projection, selection, selectionArgs, sortOrder);
+        if (!queryCache.mightFit(cursor.getCount(), cursor.getColumnCount())) {
+            return cursor;
+        }
+        CachedRows rows = CachedRows.read(cursor, generation);
+        queryCache.put(key, rows);
+        return rows.newCursor();
+    }
+
+    // Read the books, or a page of them, from the database.
+    private Cursor readBooks(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder) {
+        if (uri.getQueryParameter(BookEntry.QUERY_PARAMETER_PAGE_SIZE) != null) {
+            // If a page size is given, only query the next page of books.
+            return queryBookPage(database, uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        // Otherwise query the books together with their suppliers.
+        return queryTable(database, BookEntry.VIEW_NAME, projection, selection, selectionArgs,
+                sortOrder, null);
+    }
+
+    // Query a single book. The whole row is read and kept in the row cache, so later queries of
+    // the same book are served from memory with any projection of the view's columns.
+    private Cursor queryBookById(SQLiteDatabase database, long id, String[] projection) {
+        // This will perform a query on the books view where the _id equals 3 to return a
+        // Cursor containing that row of the table.
+        String selection = BookEntry._ID + "=?";
+        String[] selectionArgs = new String[]{String.valueOf(id)};
+
+        // Inside a transaction, such as a batch, the book may have changed without the cache
+        // being invalidated yet, and the row read may not be committed. Skip the cache.
+        if (database.inTransaction()) {
+            return queryTable(database, BookEntry.VIEW_NAME, projection, selection,
+                    selectionArgs, null, null);
+        }
+
+        Cursor cursor = rowCache.get(id, projection);
+        if (cursor != null) {
+            return cursor;
+        }
+
+        // Read the generation first, so a write that commits while the row is read keeps the
+        // row out of the cache.
+        long generation = rowCache.generation();
+        CachedRows row = CachedRows.read(queryTable(database, BookEntry.VIEW_NAME, null,
+                selection, selectionArgs, null, null), generation);
+        rowCache.put(id, row);
+        cursor = row.newCursor(projection);
+        if (cursor == null) {
+            // The projection isn't made of plain columns, so let the database compute it.
+            cursor = queryTable(database, BookEntry.VIEW_NAME, projection, selection,
+                    selectionArgs, null, null);
+        }
+        return cursor;
+    }
+
+    // Return the inventory statistics, for the whole inventory or per supplier. They are
+    // computed in SQL in a single pass, and cached until the next write.
+    private Cursor queryStats(SQLiteDatabase database, boolean perSupplier) {
+        CachedRows stats = perSupplier ? cachedSupplierStats : cachedStats;
+        if (stats == null || stats.generation != writeGeneration.get()) {
+            // Read the generation first, so a write that commits while the statistics are
+            // computed makes them out of date.
+            long generation = writeGeneration.get();
+            stats = CachedRows.read(rawQuery(database,
+                    perSupplier ? SQL_STATS_SUPPLIER : SQL_STATS, null), generation);
+            if (perSupplier) {
+                cachedSupplierStats = stats;
+            } else {
+                cachedStats = stats;
+            }
+        }
+        return stats.newCursor();
+    }
+
+    // Query one page of books. The page starts right after the book given by the after_value
+    // and after_id query parameters, which is found by seeking in the sort order instead of
+    // skipping rows, so every page costs the same no matter how far into the catalog it is.
+    private Cursor queryBookPage(SQLiteDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs, String sortOrder) {
+        // Check that the page size is a positive number.
+        int pageSize;
+        try {
+            pageSize = Integer.parseInt(uri.getQueryParameter(BookEntry.QUERY_PARAMETER_PAGE_SIZE));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Page requires a valid page size.", e);
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page requires a valid page size.");
+        }
+
+        // Check that the books are sorted by a single column. Books are sorted by _id if no
+        // sort order is given.
+        String sortColumn = BookEntry._ID;
+        boolean descending = false;
+        if (sortOrder != null) {
+            Matcher matcher = PAGE_SORT_ORDER.matcher(sortOrder);
+            if (!matcher.matches() || !PAGE_SORT_COLUMNS.contains(matcher.group(1))) {
+                throw new IllegalArgumentException("Page can't be sorted by " + sortOrder);
+            }
+            sortColumn = matcher.group(1);
+            descending = "DESC".equalsIgnoreCase(matcher.group(2));
+        }
+        String direction = descending ? " DESC" : " ASC";
+        String comparison = descending ? " < ?" : " > ?";
+
+        // Books with the same sort value are ordered by _id, so every book has a unique place.
+        String pageSortOrder = sortColumn.equals(BookEntry._ID)
+                ? BookEntry._ID + direction
+                : sortColumn + direction + ", " + BookEntry._ID + direction;
+
+        // If this isn't the first page, only select the books after the last book of the
+        // previous page.
+        String afterId = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_ID);
+        String afterValue = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_AFTER_VALUE);
+        String pageSelection = selection;
+        String[] pageSelectionArgs = selectionArgs;
+        if (afterId != null) {
+            String keySelection;
+            String[] keyArgs;
+            if (sortColumn.equals(BookEntry._ID)) {
+                keySelection = BookEntry._ID + comparison;
+                keyArgs = new String[]{afterId};
+            } else {
+                if (afterValue == null) {
+                    throw new IllegalArgumentException("Page requires the sort value of the "
+                            + "last book.");
+                }
+                keySelection = sortColumn + comparison + " OR (" + sortColumn + " = ? AND "
+                        + BookEntry._ID + comparison + ")";
+                keyArgs = new String[]{afterValue, afterValue, afterId};
+            }
+            pageSelection = selection == null
+                    ? keySelection
+                    : "(" + selection + ") AND (" + keySelection + ")";
+            pageSelectionArgs = appendArgs(selectionArgs, keyArgs);
+        }
+
+        return queryTable(database, BookEntry.VIEW_NAME, projection, pageSelection,
+                pageSelectionArgs, pageSortOrder, String.valueOf(pageSize));
+    }
+
+    // Return the selection arguments followed by the extra arguments.
+    private static String[] appendArgs(String[] selectionArgs, String[] extraArgs) {
+        if (selectionArgs == null) {
+            return extraArgs;
+        }
+        String[] args = new String[selectionArgs.length + extraArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(extraArgs, 0, args, selectionArgs.length, extraArgs.length);
+        return args;
+    }
+
+    // Search the books by title, author and supplier. Every word of the search text is matched
+    // as a prefix, and unless a sort order is given the best matches are returned first.
+    private Cursor searchBooks(SQLiteDatabase database, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs, String sortOrder) {
+        // If there is nothing to search for, return all the books.
+        String matchQuery = buildMatchQuery(uri.getQueryParameter(BookEntry.QUERY_PARAMETER_SEARCH));
+        if (matchQuery == null) {
+            return queryTable(database, BookEntry.VIEW_NAME, projection, selection,
+                    selectionArgs, sortOrder, null);
+        }
+
+        // Join the matching books with their rank. Without a projection return every book
+        // column, but not the columns of the search itself.
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(BookEntry.VIEW_NAME + " INNER JOIN " + SQL_SEARCH_MATCHES + " ON "
+                + BookEntry.VIEW_NAME + "." + BookEntry._ID + " = search.docid");
+        if (projection == null) {
+            projection = new String[]{BookEntry.VIEW_NAME + ".*"};
+        }
+        if (sortOrder == null) {
+            sortOrder = SEARCH_RANK + " DESC, " + BookEntry.COLUMN_BOOK_PRODUCT_NAME;
+        }
+        String sql = builder.buildQuery(projection, selection, null, null, sortOrder, null);
+
+        // The match query comes first, since the search table is joined before the selection.
+        String[] args = new String[1 + (selectionArgs == null ? 0 : selectionArgs.length)];
+        args[0] = matchQuery;
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, 1, selectionArgs.length);
+        }
+        return rawQuery(database, sql, args);
+    }
+
+    // Query a table or view. The SQL is built here instead of by the database, so the slow
+    // query log knows what ran.
+    private Cursor queryTable(SQLiteDatabase database, String table, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder,
+                              String limit) {
+        return rawQuery(database, SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                selection, null, null, sortOrder, limit), selectionArgs);
+    }
+
+    // Run a query, and hand its SQL and arguments to the slow query log first, in case the
+    // query turns out to be slow.
+    private Cursor rawQuery(SQLiteDatabase database, String sql, String[] selectionArgs) {
+        slowQueryLog.setLastQuery(sql, selectionArgs);
+        return database.rawQuery(sql, selectionArgs);
+    }
+
+    // Turn the search text into a full-text match query, where every word is a prefix that
+    // must be found. Return null if the search text doesn't contain any words.
+    private static String buildMatchQuery(String searchText) {
+        if (searchText == null) {
+            return null;
+        }
+
+        // Only keep letters and digits, so the search text can't use the match query syntax.
+        StringBuilder matchQuery = new StringBuilder();
+        for (String word : searchText.split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                if (matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append(word).append('*');
+            }
+        }
+        return matchQuery.length() == 0 ? null : matchQuery.toString();
+    }
+
     // Returns the MIME type of data for the content URI.
     @Nullable
     @Override
@@ -99,28 +723,162 @@ public class BookProvider extends ContentProvider {
                 return BookEntry.CONTENT_LIST_TYPE;
             case BOOK_ID:
                 return BookEntry.CONTENT_ITEM_TYPE;
+            case BOOK_SEARCH:
+                return BookEntry.CONTENT_LIST_TYPE;
+            case STATS:
+            case STATS_SUPPLIER:
+                return StatsEntry.CONTENT_TYPE;
+            case SUPPLIER:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_ID:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case SALE:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case BOOK_EXPORT:
+                return BookEntry.EXPORT_MIME_TYPE;
+            case CHANGE:
+                return ChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
 
-    // Insert new data into the provider with the given ContentValues.
+    // Returns the MIME types of the streams the content URI can be opened as.
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if (uriMatcher.match(uri) == BOOK_EXPORT
+                && ClipDescription.compareMimeTypes(BookEntry.EXPORT_MIME_TYPE, mimeTypeFilter)) {
+            return new String[]{BookEntry.EXPORT_MIME_TYPE};
+        }
+        return null;
+    }
+
+    // Open the export URI as a stream of CSV. The books are written into a pipe by a background
+    // thread while the caller reads it, so they are never copied into cursor windows or held in
+    // memory all at once, and the first bytes are available right away.
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        if (uriMatcher.match(uri) != BOOK_EXPORT) {
+            throw new FileNotFoundException("Cannot open unknown URI " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Export can only be opened for reading: " + mode);
+        }
+
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            FileNotFoundException notFound = new FileNotFoundException("Cannot open " + uri);
+            notFound.initCause(e);
+            throw notFound;
+        }
+        bookExporter.exportInBackground(pipe[1]);
+        return pipe[0];
+    }
+
+    // Open the export URI as a stream of the requested type. The length of the stream isn't
+    // known until the export has finished.
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter,
+                                                  @Nullable Bundle opts)
+            throws FileNotFoundException {
+        if (uriMatcher.match(uri) == BOOK_EXPORT) {
+            if (!ClipDescription.compareMimeTypes(BookEntry.EXPORT_MIME_TYPE, mimeTypeFilter)) {
+                throw new FileNotFoundException("Export can't be opened as " + mimeTypeFilter);
+            }
+            return new AssetFileDescriptor(openFile(uri, "r"), 0,
+                    AssetFileDescriptor.UNKNOWN_LENGTH);
+        }
+        return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+    }
+
+    // Insert new data into the provider, holding the read lock of the database.
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
+        databaseLock.readLock().lock();
+        try {
+            return insertLocked(uri, contentValues);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Insert new data into the provider with the given ContentValues.
+    private Uri insertLocked(Uri uri, ContentValues contentValues) {
+        long start = System.nanoTime();
+        Uri newUri;
         final int match = uriMatcher.match(uri);
         switch (match) {
             case BOOK:
                 assert contentValues != null;
-                return insertBook(uri, contentValues);
+                newUri = insertBook(uri, contentValues);
+                break;
+            case SUPPLIER:
+                assert contentValues != null;
+                newUri = insertSupplier(uri, contentValues);
+                break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
+        metrics.record(ProviderMetrics.INSERT, match, System.nanoTime() - start,
+                newUri == null ? 0 : 1);
+        return newUri;
     }
 
     // Insert a book into the database with the given content values. Return the new content URI
     // for that specific row in the database.
     private Uri insertBook(Uri uri, ContentValues values) {
+        // Check that all of the required book attributes are valid.
+        validateBook(values);
+
+        // Gets the data repository in write mode.
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Insert the new row with its supplier, which is added first if it is new.
+        // If the book can't be inserted, the transaction is rolled back, so a new supplier
+        // isn't left behind without books.
+        long id;
+        database.beginTransaction();
+        try {
+            id = database.insert(BookEntry.TABLE_NAME, null, toBookRow(values));
+            if (id != -1) {
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Once the ID of the new row in the table is known,
+        // form the new URI with the ID appended to the end of it.
+        Uri newUri = ContentUris.withAppendedId(uri, id);
+
+        // Notify all listeners that the data has changed for the new book.
+        notifyChange(newUri);
+
+        // Return the new URI.
+        return newUri;
+    }
+
+    // Check that the given content values describe a valid book. Throws an
+    // IllegalArgumentException naming the first attribute that is missing or invalid.
+    static void validateBook(ContentValues values) {
+        // The version is kept by the database.
+        if (values.containsKey(BookEntry.COLUMN_BOOK_VERSION)) {
+            throw new IllegalArgumentException("Book version can't be written.");
+        }
+
         // Check that the product_name is not null.
         String productName = values.getAsString(BookEntry.COLUMN_BOOK_PRODUCT_NAME);
         if (productName == null) {
@@ -134,7 +892,7 @@ public class BookProvider extends ContentProvider {
         }
 
         // Check that the price is greater than or equal to 0.
-        Double price = values.getAsDouble(BookEntry.COLUMN_BOOK_PRICE);
+        Long price = values.getAsLong(BookEntry.COLUMN_BOOK_PRICE);
         if (price != null && price < 0) {
             throw new IllegalArgumentException("Book requires valid price.");
         }
@@ -156,31 +914,504 @@ public class BookProvider extends ContentProvider {
         if (supplierPhoneNumber == null) {
             throw new IllegalArgumentException("Book requires the supplier's phone number.");
         }
+    }
+
+    // Return a copy of the book values for the books table, with the supplier's name and phone
+    // number replaced by the ID of the supplier. Must be called inside a transaction, so a new
+    // supplier is only added once.
+    private ContentValues toBookRow(ContentValues values) {
+        if (!values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER)
+                && !values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER)) {
+            return values;
+        }
+        ContentValues row = new ContentValues(values);
+        row.remove(BookEntry.COLUMN_BOOK_SUPPLIER);
+        row.remove(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER);
+        row.put(BookEntry.COLUMN_BOOK_SUPPLIER_ID, findOrInsertSupplier(
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER),
+                values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER)));
+        return row;
+    }
+
+    // Return the ID of the supplier with the given name and phone number, adding the supplier
+    // if it doesn't exist yet. Must be called inside a transaction.
+    private long findOrInsertSupplier(String name, String phoneNumber) {
+        long id = findSupplier(name, phoneNumber);
+        return id != -1 ? id : addSupplier(name, phoneNumber);
+    }
+
+    // Return the ID of the supplier with the given name and phone number, or -1 if there is no
+    // such supplier.
+    private long findSupplier(String name, String phoneNumber) {
+        SQLiteStatement findStatement = statementCache.get(SQL_FIND_SUPPLIER);
+        findStatement.bindString(1, name);
+        findStatement.bindString(2, phoneNumber);
+        try {
+            return findStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    // Add a new supplier with the given name and phone number, and return its ID. Must be
+    // called inside a transaction.
+    private long addSupplier(String name, String phoneNumber) {
+        SQLiteStatement insertStatement = statementCache.get(SQL_INSERT_SUPPLIER);
+        insertStatement.bindString(1, name);
+        insertStatement.bindString(2, phoneNumber);
+        long id = insertStatement.executeInsert();
+        notifyChange(SupplierEntry.CONTENT_URI);
+        return id;
+    }
+
+    // Insert a supplier into the database with the given content values. If the supplier already
+    // exists, nothing is inserted. Return the content URI of the supplier.
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        // Check that all of the required supplier attributes are valid.
+        validateSupplier(values);
 
         // Gets the data repository in write mode.
         SQLiteDatabase database = dbHelper.getWritableDatabase();
 
-        // Insert the new row, with the given values.
-        long id = database.insert(BookEntry.TABLE_NAME, null, values);
+        long id;
+        database.beginTransaction();
+        try {
+            id = findOrInsertSupplier(values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME),
+                    values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        // Return the URI of the supplier.
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    // Check that the given content values describe a valid supplier.
+    private static void validateSupplier(ContentValues values) {
+        // Check that the name is not null.
+        String name = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        if (name == null) {
+            throw new IllegalArgumentException("Supplier requires a name.");
         }
 
-        // Notify all listeners that the data has changed for the book content URI.
-        Objects.requireNonNull(getContext()).getContentResolver().notifyChange(uri, null);
+        // Check that the phone_number is not null.
+        String phoneNumber = values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER);
+        if (phoneNumber == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number.");
+        }
+    }
 
-        // Once the ID of the new row in the table is known,
-        // return the new URI with the ID appended to the end of it.
-        return ContentUris.withAppendedId(uri, id);
+    // Insert many books in a single transaction. Every row goes through the same validation as
+    // insertBook, rows that fail are logged and skipped, and listeners are notified only once.
+    // A supplier that was added for a row that then fails is removed again, so skipped rows
+    // leave nothing behind. Return the number of rows that were successfully inserted.
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] valuesArray) {
+        databaseLock.readLock().lock();
+        try {
+            return bulkInsertLocked(uri, valuesArray);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
     }
 
-    // Delete the data at the given selection and selection arguments.
+    // Insert many books. The caller holds the read lock of the database.
+    private int bulkInsertLocked(Uri uri, ContentValues[] valuesArray) {
+        long start = System.nanoTime();
+        final int match = uriMatcher.match(uri);
+        if (match != BOOK) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Gets the data repository in write mode.
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Track the number of rows that were inserted.
+        int rowsInserted = 0;
+
+        database.beginTransaction();
+        SQLiteStatement statement = statementCache.get(SQL_INSERT_BOOK);
+        try {
+            for (int i = 0; i < valuesArray.length; i++) {
+                ContentValues values = valuesArray[i];
+                try {
+                    // Check the row, then bind its values to the compiled statement.
+                    validateBook(values);
+                    statement.clearBindings();
+                    bindString(statement, 1, values.getAsString(BookEntry.COLUMN_BOOK_PRODUCT_NAME));
+                    bindString(statement, 2, values.getAsString(BookEntry.COLUMN_BOOK_AUTHOR));
+                    bindLong(statement, 3, values.getAsLong(BookEntry.COLUMN_BOOK_PRICE));
+                    bindLong(statement, 4, values.getAsLong(BookEntry.COLUMN_BOOK_QUANTITY));
+                    String supplier = values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER);
+                    String phoneNumber =
+                            values.getAsString(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER);
+                    long supplierId = findSupplier(supplier, phoneNumber);
+                    boolean newSupplier = supplierId == -1;
+                    if (newSupplier) {
+                        supplierId = addSupplier(supplier, phoneNumber);
+                    }
+                    statement.bindLong(5, supplierId);
+
+                    // If the ID is -1, then the insertion failed for this row.
+                    boolean inserted = false;
+                    try {
+                        inserted = statement.executeInsert() != -1;
+                    } finally {
+                        if (!inserted && newSupplier) {
+                            deleteSupplier(supplierId);
+                        }
+                    }
+                    if (inserted) {
+                        rowsInserted++;
+                    } else {
+                        Log.e(LOG_TAG, "Failed to insert row " + i + " for " + uri);
+                    }
+                } catch (IllegalArgumentException | SQLException e) {
+                    // Report the bad row and carry on with the rest of the batch.
+                    Log.e(LOG_TAG, "Failed to insert row " + i + " for " + uri, e);
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were inserted, then notify all listeners once for the whole batch.
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        metrics.record(ProviderMetrics.INSERT, match, System.nanoTime() - start, rowsInserted);
+
+        // Return the number of rows inserted.
+        return rowsInserted;
+    }
+
+    // Remove a supplier that was added for a book that couldn't be inserted. Must be called
+    // inside the transaction that added it.
+    private void deleteSupplier(long id) {
+        SQLiteStatement deleteStatement = statementCache.get(SQL_DELETE_SUPPLIER);
+        deleteStatement.bindLong(1, id);
+        deleteStatement.executeUpdateDelete();
+    }
+
+    // Bind a string to the statement, or null if there is no value.
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    // Bind a long to the statement, or null if there is no value.
+    private static void bindLong(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    // Apply a batch of operations in a single transaction. Operations marked with
+    // withYieldAllowed(true) may let waiting connections in, which commits the part of the
+    // batch before them; that part stays committed even if a later operation fails. Otherwise
+    // the whole batch is committed or rolled back together. Listeners are notified once per
+    // URI changed by the committed operations.
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        databaseLock.readLock().lock();
+        try {
+            return applyBatchLocked(operations);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Apply a batch of operations. The caller holds the read lock of the database.
+    private ContentProviderResult[] applyBatchLocked(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Collect the changed URIs instead of notifying right away, and the URIs changed by
+        // the part of the batch that was committed when the transaction yielded.
+        Set<Uri> changedUris = new LinkedHashSet<>();
+        Set<Uri> committedUris = new LinkedHashSet<>();
+        batchChangedUris.set(changedUris);
+
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean committed = false;
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                ContentProviderOperation operation = operations.get(i);
+
+                // Give other connections a chance to use the database between operations.
+                if (i > 0 && operation.isYieldAllowed() && database.yieldIfContendedSafely()) {
+                    committedUris.addAll(changedUris);
+                }
+
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            database.endTransaction();
+            batchChangedUris.remove();
+
+            // Whether the batch was committed or not, results cached during it are out of date.
+            writeGeneration.incrementAndGet();
+            for (Uri changedUri : changedUris) {
+                invalidateCachedRows(changedUri);
+            }
+
+            // Notify the changes that were committed, even if a later operation failed.
+            notifyBatchChanges(committed ? changedUris : committedUris);
+        }
+
+        // Return the results of the operations.
+        return results;
+    }
+
+    // Notify all listeners once for each URI changed by a committed batch.
+    private void notifyBatchChanges(Set<Uri> changedUris) {
+        if (changedUris.isEmpty()) {
+            return;
+        }
+        for (Uri changedUri : changedUris) {
+            metrics.recordNotification(uriMatcher.match(changedUri));
+        }
+        changeLogCompactor.onWrite();
+        changeNotifier.notifyChange(changedUris);
+    }
+
+    // Notify all listeners that the data at the given URI has changed. Changes to a single
+    // book should pass the URI of that book, so only its listeners have to reload. If a batch
+    // is running on this thread, the notification is held back until the batch has been
+    // committed, and bursts of changes are notified together by the change notifier.
+    private void notifyChange(Uri uri) {
+        Set<Uri> changedUris = batchChangedUris.get();
+        if (changedUris != null) {
+            changedUris.add(uri);
+        } else {
+            writeGeneration.incrementAndGet();
+            invalidateCachedRows(uri);
+            metrics.recordNotification(uriMatcher.match(uri));
+            changeLogCompactor.onWrite();
+            changeNotifier.notifyChange(uri);
+        }
+    }
+
+    // Remove the books that changed at the given URI from the row cache.
+    private void invalidateCachedRows(Uri uri) {
+        switch (uriMatcher.match(uri)) {
+            case BOOK_ID:
+                rowCache.invalidate(ContentUris.parseId(uri));
+                break;
+            case BOOK:
+                // Any book may have changed.
+                rowCache.clear();
+                break;
+            default:
+                // The books themselves haven't changed.
+                break;
+        }
+    }
+
+    // Run a provider method that doesn't fit the query, insert, update and delete calls. A
+    // restore replaces the database, so it holds the write lock of the database; every other
+    // method holds the read lock.
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (BookContract.METHOD_RESTORE.equals(method)) {
+            return backupOrRestore(method, arg);
+        }
+        databaseLock.readLock().lock();
+        try {
+            return callLocked(method, arg, extras);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Run a provider method other than a restore. The caller holds the read lock of the
+    // database.
+    private Bundle callLocked(String method, String arg, Bundle extras) {
+        switch (method) {
+            case BookContract.METHOD_SELL:
+                // The method argument holds the ID of the book that is sold.
+                if (arg == null) {
+                    throw new IllegalArgumentException("Sale requires a book ID.");
+                }
+                int amount = extras == null ? 1 : extras.getInt(BookContract.EXTRA_AMOUNT, 1);
+                return sellBook(Long.parseLong(arg), amount);
+            case BookContract.METHOD_ROW_CACHE_STATS:
+                Bundle stats = new Bundle();
+                stats.putInt(BookContract.EXTRA_HITS, rowCache.hitCount());
+                stats.putInt(BookContract.EXTRA_MISSES, rowCache.missCount());
+                return stats;
+            case BookContract.METHOD_QUERY_CACHE_STATS:
+                Bundle queryStats = new Bundle();
+                queryStats.putInt(BookContract.EXTRA_HITS, queryCache.hitCount());
+                queryStats.putInt(BookContract.EXTRA_MISSES, queryCache.missCount());
+                return queryStats;
+            case BookContract.METHOD_METRICS:
+                return metrics.toBundle();
+            case BookContract.METHOD_SLOW_QUERIES:
+                return slowQueryLog.toBundle();
+            case BookContract.METHOD_SET_SLOW_QUERY_THRESHOLD:
+                // The method argument holds the new threshold in milliseconds.
+                if (arg == null) {
+                    throw new IllegalArgumentException("Slow query log requires a threshold.");
+                }
+                slowQueryLog.setThresholdMillis(Long.parseLong(arg));
+                return null;
+            case BookContract.METHOD_BACKUP:
+                return backupOrRestore(method, arg);
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    // Print the metrics and the slow queries of the provider, for
+    // "adb shell dumpsys activity provider".
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        metrics.dump(writer);
+        slowQueryLog.dump(writer);
+    }
+
+    // Back up the database to the file at the given path, or replace the database with it.
+    // Return how long it took. Failures are reported as an IllegalStateException, since call()
+    // can't throw checked exceptions. The provider reads and writes the file with the app's
+    // own permissions, so only the app itself may pass a path.
+    private Bundle backupOrRestore(String method, String path) {
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException("Backup requires the app's own process.");
+        }
+        // The method argument holds the path of the backup file.
+        if (path == null) {
+            throw new IllegalArgumentException("Backup requires a file.");
+        }
+        File file = new File(path);
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            if (BookContract.METHOD_BACKUP.equals(method)) {
+                BookBackup.backup(dbHelper, file);
+            } else {
+                restoreDatabase(file);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to " + method + " " + file, e);
+        }
+        long elapsedMillis = SystemClock.elapsedRealtime() - start;
+        Log.i(LOG_TAG, "Finished " + method + " of " + file + " in " + elapsedMillis + " ms");
+
+        Bundle result = new Bundle();
+        result.putLong(BookContract.EXTRA_ELAPSED_MILLIS, elapsedMillis);
+        return result;
+    }
+
+    // Replace the database with a backup. The write lock of the database waits for every
+    // call, compaction and export page that is using the old database, and keeps new ones out
+    // until the restored database is open. The compiled statements belong to the old database,
+    // and every cached result is out of date, so they are all dropped, and every listener is
+    // told that everything has changed.
+    private void restoreDatabase(File backup) throws IOException {
+        // A thread that holds the read lock can't take the write lock, and would wait forever.
+        if (databaseLock.getReadHoldCount() > 0) {
+            throw new IllegalStateException("Restore can't run while the database is in use.");
+        }
+        databaseLock.writeLock().lock();
+        try {
+            statementCache.close();
+            BookBackup.restore(dbHelper, backup);
+            cachedStats = null;
+            cachedSupplierStats = null;
+            notifyChange(BookEntry.CONTENT_URI);
+            notifyChange(SupplierEntry.CONTENT_URI);
+            notifyChange(SaleEntry.CONTENT_URI);
+        } finally {
+            databaseLock.writeLock().unlock();
+        }
+    }
+
+    // Sell the given number of copies of a book. The sale is appended to the sales ledger by a
+    // single INSERT statement that only adds a row when there are enough copies in stock, so
+    // concurrent sales can't drive the stock below zero. The ledger is folded into the book's
+    // quantity later, by the sales compactor. Return whether the sale went through, together
+    // with the quantity left.
+    private Bundle sellBook(long id, int amount) {
+        // Check that at least one copy is sold.
+        if (amount < 1) {
+            throw new IllegalArgumentException("Sale requires a valid amount.");
+        }
+
+        // Get writable database
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        boolean sold;
+        long quantity;
+        database.beginTransaction();
+        try {
+            // Record the sale, if there are enough copies in stock.
+            SQLiteStatement sellStatement = statementCache.get(SQL_SELL_BOOK);
+            sellStatement.bindLong(1, amount);
+            sellStatement.bindLong(2, System.currentTimeMillis());
+            sellStatement.bindLong(3, id);
+            sellStatement.bindLong(4, amount);
+            sold = sellStatement.executeInsert() != -1;
+
+            // Read back the stock left in the same transaction.
+            SQLiteStatement quantityStatement = statementCache.get(SQL_BOOK_QUANTITY);
+            quantityStatement.bindLong(1, id);
+            try {
+                quantity = quantityStatement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // There is no book with this ID.
+                quantity = -1;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If the sale went through, notify all listeners that the book and the ledger have
+        // changed, and let the ledger be compacted.
+        if (sold) {
+            notifyChange(ContentUris.withAppendedId(BookEntry.CONTENT_URI, id));
+            notifyChange(SaleEntry.CONTENT_URI);
+            salesCompactor.onSale();
+        }
+
+        // Return the result of the sale.
+        Bundle result = new Bundle();
+        result.putBoolean(BookContract.EXTRA_SOLD, sold);
+        result.putLong(BookContract.EXTRA_QUANTITY, quantity);
+        return result;
+    }
+
+    // Delete the data at the given URI, holding the read lock of the database.
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection,
                       @Nullable String[] selectionArgs) {
+        databaseLock.readLock().lock();
+        try {
+            return deleteLocked(uri, selection, selectionArgs);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Delete the data at the given selection and selection arguments.
+    private int deleteLocked(Uri uri, String selection, String[] selectionArgs) {
+        long start = System.nanoTime();
+
         // Get writable database
         SQLiteDatabase database = dbHelper.getWritableDatabase();
 
@@ -190,14 +1421,36 @@ public class BookProvider extends ContentProvider {
         final int match = uriMatcher.match(uri);
         switch (match) {
             case BOOK:
-                // Delete all rows that match the selection and selection args.
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                String limit = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    // Delete the first matching books, in a transaction of their own.
+                    rowsDeleted = database.delete(BookEntry.TABLE_NAME,
+                            limitBooksFromView(selection, parseLimit(limit)), selectionArgs);
+                } else if (selection == null) {
+                    // Delete all books at once, which is much faster than one at a time.
+                    rowsDeleted = BookDbHelper.truncateBooks(database);
+                } else {
+                    // Delete all rows that match the selection and selection args. The
+                    // selection may use the supplier columns, so it is matched against the view.
+                    rowsDeleted = database.delete(BookEntry.TABLE_NAME,
+                            selectBooksFromView(selection), selectionArgs);
+                }
                 break;
             case BOOK_ID:
                 // Delete a single row given by the ID in the URI.
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(BookEntry.TABLE_NAME, selection, selectionArgs);
+                SQLiteStatement statement = statementCache.get(SQL_DELETE_BOOK);
+                statement.bindLong(1, ContentUris.parseId(uri));
+                rowsDeleted = statement.executeUpdateDelete();
+                break;
+            case SUPPLIER:
+                // Delete all suppliers that match the selection. A supplier that still has books
+                // can't be deleted, and fails with a constraint exception.
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                // Delete a single supplier given by the ID in the URI.
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -206,38 +1459,324 @@ public class BookProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed.
         if (rowsDeleted != 0) {
-            Objects.requireNonNull(getContext()).getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
+        metrics.record(ProviderMetrics.DELETE, match, System.nanoTime() - start, rowsDeleted);
 
         // Return the number of rows deleted.
         return rowsDeleted;
     }
 
-    // Updates the data at the given selection and selection arguments, with the new ContentValues.
+    // Update the data at the given URI, holding the read lock of the database.
     @Override
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues,
                       @Nullable String selection, @Nullable String[] selectionArgs) {
+        databaseLock.readLock().lock();
+        try {
+            return updateLocked(uri, contentValues, selection, selectionArgs);
+        } finally {
+            databaseLock.readLock().unlock();
+        }
+    }
+
+    // Updates the data at the given selection and selection arguments, with the new ContentValues.
+    private int updateLocked(Uri uri, ContentValues contentValues, String selection,
+                             String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsUpdated;
         final int match = uriMatcher.match(uri);
         switch (match) {
             case BOOK:
                 assert contentValues != null;
-                return updateBook(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updateBook(uri, contentValues, selection, selectionArgs);
+                break;
             case BOOK_ID:
                 // For the BOOK_ID code, extract out the ID from the URI,
                 // so the proper row to can be updated.
-                selection = BookEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 assert contentValues != null;
-                return updateBook(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updateBookById(uri, ContentUris.parseId(uri), contentValues,
+                        parseExpectedVersion(uri));
+                break;
+            case SUPPLIER:
+                assert contentValues != null;
+                rowsUpdated = updateSupplier(uri, contentValues, selection, selectionArgs);
+                break;
+            case SUPPLIER_ID:
+                assert contentValues != null;
+                rowsUpdated = updateSupplier(uri, contentValues, SupplierEntry._ID + "=?",
+                        new String[]{String.valueOf(ContentUris.parseId(uri))});
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        metrics.record(ProviderMetrics.UPDATE, match, System.nanoTime() - start, rowsUpdated);
+        return rowsUpdated;
     }
 
     // Update books in the database with the given content values. Apply the changes to the rows
     // specified in the selection and selection arguments (which could be 0 or 1 or more books).
     // Return the number of rows that were successfully updated.
     private int updateBook(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        // Check that the book attributes that are being changed are valid.
+        validateBookUpdate(values);
+
+        // A version belongs to a single book.
+        if (uri.getQueryParameter(BookEntry.QUERY_PARAMETER_EXPECTED_VERSION) != null) {
+            throw new IllegalArgumentException("Expected version requires a single book.");
+        }
+
+        // If there are no values to update, then don't try to update the database.
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // The books may have different suppliers, so the supplier can only be changed as a
+        // whole.
+        if (values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER)
+                != values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER)) {
+            throw new IllegalArgumentException("Books require both the supplier and the "
+                    + "supplier's phone number.");
+        }
+
+        // Otherwise, get writable database to update the data.
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        // Perform the update on the database and get the number of rows affected. The selection
+        // may use the supplier columns, so it is matched against the view.
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            compactBeforeQuantityChange(database, values);
+            rowsUpdated = database.update(BookEntry.TABLE_NAME, toBookRow(values),
+                    selectBooksFromView(selection), selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed.
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        // Return the number of rows updated.
+        return rowsUpdated;
+    }
+
+    // Update a single book with the given content values. Updates of the same columns share a
+    // compiled statement, so the frequent single book updates aren't compiled every time. If an
+    // expected version is given (not -1), the book is only updated if it still has that
+    // version. Return the number of rows that were successfully updated, or UPDATE_STALE if
+    // the book has a different version.
+    private int updateBookById(Uri uri, long id, ContentValues values, long expectedVersion) {
+        // Check that the book attributes that are being changed are valid.
+        validateBookUpdate(values);
+
+        // If there are no values to update, then don't try to update the database.
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Get writable database to update the data.
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            // The transaction holds the write lock, so the version can't change between the
+            // check and the update.
+            if (expectedVersion != -1) {
+                SQLiteStatement versionStatement = statementCache.get(SQL_BOOK_VERSION);
+                versionStatement.bindLong(1, id);
+                try {
+                    if (versionStatement.simpleQueryForLong() != expectedVersion) {
+                        return BookContract.UPDATE_STALE;
+                    }
+                } catch (SQLiteDoneException e) {
+                    // There is no book with this ID.
+                    return 0;
+                }
+            }
+
+            // If only the supplier's name or only the phone number changes, keep the other one.
+            values = completeSupplier(id, values);
+            if (values == null) {
+                // There is no book with this ID.
+                return 0;
+            }
+            compactBeforeQuantityChange(database, values);
+            ContentValues row = toBookRow(values);
+
+            // Build the statement for the columns that are being changed, and collect their
+            // values in the same order.
+            StringBuilder sql = new StringBuilder("UPDATE ").append(BookEntry.TABLE_NAME)
+                    .append(" SET ");
+            Object[] bindArgs = new Object[row.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> value : row.valueSet()) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(value.getKey()).append(" = ?");
+                bindArgs[i++] = value.getValue();
+            }
+            sql.append(" WHERE ").append(BookEntry._ID).append(" = ?;");
+
+            // Perform the update on the database and get the number of rows affected.
+            SQLiteStatement statement = statementCache.get(sql.toString());
+            for (i = 0; i < bindArgs.length; i++) {
+                DatabaseUtils.bindObjectToProgram(statement, i + 1, bindArgs[i]);
+            }
+            statement.bindLong(bindArgs.length + 1, id);
+            rowsUpdated = statement.executeUpdateDelete();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed.
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+        }
+
+        // Return the number of rows updated.
+        return rowsUpdated;
+    }
+
+    // Return the expected version of the book given with the URI, or -1 if there is none.
+    private static long parseExpectedVersion(Uri uri) {
+        String expectedVersion = uri.getQueryParameter(BookEntry.QUERY_PARAMETER_EXPECTED_VERSION);
+        if (expectedVersion == null) {
+            return -1;
+        }
+        long version;
+        try {
+            version = Long.parseLong(expectedVersion);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Update requires a valid expected version.", e);
+        }
+        if (version < 0) {
+            throw new IllegalArgumentException("Update requires a valid expected version.");
+        }
+        return version;
+    }
+
+    // If the values set a new quantity, compact the sales ledger first. The given quantity is
+    // the new current stock, so no earlier sales may be taken off it afterwards.
+    private static void compactBeforeQuantityChange(SQLiteDatabase database,
+                                                    ContentValues values) {
+        if (values.containsKey(BookEntry.COLUMN_BOOK_QUANTITY)) {
+            SalesCompactor.compact(database);
+        }
+    }
+
+    // Return the book values with the supplier's name or phone number filled in from the book,
+    // when only one of them is being changed. Return null if there is no book with the ID.
+    private ContentValues completeSupplier(long id, ContentValues values) {
+        boolean hasSupplier = values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER);
+        boolean hasPhoneNumber = values.containsKey(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER);
+        if (hasSupplier == hasPhoneNumber) {
+            return values;
+        }
+        Cursor cursor = dbHelper.getWritableDatabase().rawQuery(SQL_BOOK_SUPPLIER,
+                new String[]{String.valueOf(id)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            ContentValues completeValues = new ContentValues(values);
+            if (hasSupplier) {
+                completeValues.put(BookEntry.COLUMN_BOOK_SUPPLIER_PHONE_NUMBER,
+                        cursor.getString(1));
+            } else {
+                completeValues.put(BookEntry.COLUMN_BOOK_SUPPLIER, cursor.getString(0));
+            }
+            return completeValues;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Return a selection of the books table that selects the books matching the given selection
+    // in the view, or null to select all books.
+    private static String selectBooksFromView(String selection) {
+        if (selection == null) {
+            return null;
+        }
+        return BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.VIEW_NAME
+                + " WHERE " + selection + ")";
+    }
+
+    // Return a selection of the books table that selects the first books, by _id, matching the
+    // given selection in the view, or the first of all books if the selection is null.
+    private static String limitBooksFromView(String selection, int limit) {
+        return BookEntry._ID + " IN (SELECT " + BookEntry._ID + " FROM " + BookEntry.VIEW_NAME
+                + (selection == null ? "" : " WHERE " + selection) + " ORDER BY "
+                + BookEntry._ID + " LIMIT " + limit + ")";
+    }
+
+    // Return the given limit on the number of books to delete, checking it is a positive
+    // number.
+    private static int parseLimit(String limit) {
+        int value;
+        try {
+            value = Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Delete requires a valid limit.", e);
+        }
+        if (value < 1) {
+            throw new IllegalArgumentException("Delete requires a valid limit.");
+        }
+        return value;
+    }
+
+    // Update suppliers in the database with the given content values. Every book of the changed
+    // suppliers shows the new values, so the listeners of the books are notified too.
+    // Return the number of rows that were successfully updated.
+    private int updateSupplier(Uri uri, ContentValues values, String selection,
+                               String[] selectionArgs) {
+        // If the name is present, check that it is not null.
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_NAME)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME) == null) {
+            throw new IllegalArgumentException("Supplier requires a name.");
+        }
+
+        // If the phone_number is present, check that it is not null.
+        if (values.containsKey(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER)
+                && values.getAsString(SupplierEntry.COLUMN_SUPPLIER_PHONE_NUMBER) == null) {
+            throw new IllegalArgumentException("Supplier requires a phone number.");
+        }
+
+        // If there are no values to update, then don't try to update the database.
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        // Perform the update on the database and get the number of rows affected.
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(SupplierEntry.TABLE_NAME, values, selection,
+                selectionArgs);
+
+        // If 1 or more rows were updated, then notify all listeners of the suppliers and books.
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
+            notifyChange(BookEntry.CONTENT_URI);
+        }
+
+        // Return the number of rows updated.
+        return rowsUpdated;
+    }
+
+    // Check that the book attributes in the given content values are valid. Unlike a new book,
+    // an update only has to contain the attributes that are being changed.
+    private static void validateBookUpdate(ContentValues values) {
+        // The version is kept by the database.
+        if (values.containsKey(BookEntry.COLUMN_BOOK_VERSION)) {
+            throw new IllegalArgumentException("Book version can't be written.");
+        }
+
         // If the {@link BookEntry#COLUMN_BOOK_PRODUCT_NAME} key is present,
         // check that the product_name value is not null.
         if (values.containsKey(BookEntry.COLUMN_BOOK_PRODUCT_NAME)) {
@@ -259,7 +1798,7 @@ public class BookProvider extends ContentProvider {
         // If the {@link BookEntry#COLUMN_BOOK_PRICE} key is present,
         // check that the price value is valid.
         if (values.containsKey(BookEntry.COLUMN_BOOK_PRICE)) {
-            Integer price = values.getAsInteger(BookEntry.COLUMN_BOOK_PRICE);
+            Long price = values.getAsLong(BookEntry.COLUMN_BOOK_PRICE);
             if (price != null && price < 0) {
                 throw new IllegalArgumentException("Book requires valid price.");
             }
@@ -291,25 +1830,5 @@ public class BookProvider extends ContentProvider {
                 throw new IllegalArgumentException("Book requires the supplier's phone number.");
             }
         }
-
-        // If there are no values to update, then don't try to update the database.
-        if (values.size() == 0) {
-            return 0;
-        }
-
-        // Otherwise, get writable database to update the data.
-        SQLiteDatabase database = dbHelper.getWritableDatabase();
-
-        // Perform the update on the database and get the number of rows affected.
-        int rowsUpdated = database.update(BookEntry.TABLE_NAME, values, selection, selectionArgs);
-
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed.
-        if (rowsUpdated != 0) {
-            Objects.requireNonNull(getContext()).getContentResolver().notifyChange(uri, null);
-        }
-
-        // Return the number of rows updated.
-        return rowsUpdated;
     }
 }
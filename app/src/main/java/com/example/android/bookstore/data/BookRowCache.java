@@ -0,0 +1,101 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.util.LruCache;
+
+/**
+ * Bounded cache of single book rows, keyed by the book's ID. The least recently used rows are
+ * evicted when the cache is full.
+ * <p>
+ * Every invalidation moves the cache to a new generation. A row read from the database is only
+ * added if no invalidation happened while it was read, so a read that races with a write can't
+ * put the old row back after the write has invalidated it.
+ */
+final class BookRowCache {
+
+    // Cached rows. Each value holds the single row of a book, with all columns of the view.
+    private final LruCache<Long, CachedRows> rows;
+
+    // Number of invalidations so far. Guarded by this.
+    private long generation;
+
+    /**
+     * Constructs a new {@link BookRowCache}.
+     *
+     * @param maxRows largest number of books that are cached
+     */
+    BookRowCache(int maxRows) {
+        rows = new LruCache<>(maxRows);
+    }
+
+    /**
+     * Returns the current generation of the cache. Read it before querying a row from the
+     * database, and pass the row to {@link #put(long, CachedRows)} read at this generation.
+     *
+     * @return the current generation
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Returns a cursor over the given columns of a cached book.
+     *
+     * @param id         of the book
+     * @param projection columns to return, or null for all columns
+     * @return cursor over the book, or null if it isn't cached or doesn't have the columns
+     */
+    Cursor get(long id, String[] projection) {
+        CachedRows row = rows.get(id);
+        return row == null ? null : row.newCursor(projection);
+    }
+
+    /**
+     * Adds a book that was read from the database, unless the cache was invalidated since the
+     * generation it was read at.
+     *
+     * @param id  of the book
+     * @param row the book's row, read at {@link CachedRows#generation}
+     */
+    synchronized void put(long id, CachedRows row) {
+        if (row.generation == generation && row.getCount() == 1) {
+            rows.put(id, row);
+        }
+    }
+
+    /**
+     * Removes a book that has changed.
+     *
+     * @param id of the book
+     */
+    synchronized void invalidate(long id) {
+        generation++;
+        rows.remove(id);
+    }
+
+    /**
+     * Removes all books, after a change that may affect any of them.
+     */
+    synchronized void clear() {
+        generation++;
+        rows.evictAll();
+    }
+
+    /**
+     * Returns the number of lookups that found their book in the cache.
+     *
+     * @return the number of hits
+     */
+    int hitCount() {
+        return rows.hitCount();
+    }
+
+    /**
+     * Returns the number of lookups that didn't find their book in the cache.
+     *
+     * @return the number of misses
+     */
+    int missCount() {
+        return rows.missCount();
+    }
+}
@@ -0,0 +1,377 @@
+package com.example.android.bookstore.data;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * Rows of a query result held in memory, together with the write generation of the database
+ * they were read at. A result is only valid while the generation hasn't changed.
+ * <p>
+ * The values are stored column by column. A column that only holds integers is kept in a
+ * {@code long[]}, so the common ID, price and quantity columns don't box every value. Cursors
+ * over the rows read the arrays directly, without copying them, and copy text and integers into
+ * a {@link CharArrayBuffer} without creating strings.
+ */
+final class CachedRows {
+
+    // Estimated size of an object header and of a reference, in bytes.
+    private static final int OBJECT_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    // Write generation of the database when the rows were read.
+    final long generation;
+
+    // Column names of the result.
+    private final String[] columnNames;
+
+    // Number of rows.
+    private final int count;
+
+    // Values of each column: a long[] if the column only holds integers and nulls, otherwise an
+    // Object[] of Long, Double, String and byte[] values.
+    private final Object[] columns;
+
+    // Which values of each integer column are null, or null if none of them are.
+    private final boolean[][] nulls;
+
+    private CachedRows(long generation, String[] columnNames, int count, Object[] columns,
+                       boolean[][] nulls) {
+        this.generation = generation;
+        this.columnNames = columnNames;
+        this.count = count;
+        this.columns = columns;
+        this.nulls = nulls;
+    }
+
+    /**
+     * Reads all rows of the given cursor and closes it.
+     *
+     * @param cursor     result to read
+     * @param generation write generation of the database the cursor was queried at
+     * @return the rows of the cursor
+     */
+    static CachedRows read(Cursor cursor, long generation) {
+        try {
+            String[] columnNames = cursor.getColumnNames();
+            int count = cursor.getCount();
+            Object[] columns = new Object[columnNames.length];
+            boolean[][] nulls = new boolean[columnNames.length][];
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = new long[count];
+            }
+
+            int position = 0;
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columns.length; column++) {
+                    int type = cursor.getType(column);
+                    if (columns[column] instanceof long[]) {
+                        long[] longs = (long[]) columns[column];
+                        if (type == Cursor.FIELD_TYPE_INTEGER) {
+                            longs[position] = cursor.getLong(column);
+                            continue;
+                        }
+                        if (type == Cursor.FIELD_TYPE_NULL) {
+                            if (nulls[column] == null) {
+                                nulls[column] = new boolean[count];
+                            }
+                            nulls[column][position] = true;
+                            continue;
+                        }
+
+                        // The column holds other values than integers, so box it.
+                        columns[column] = box(longs, nulls[column], position);
+                        nulls[column] = null;
+                    }
+                    ((Object[]) columns[column])[position] = readValue(cursor, column, type);
+                }
+                position++;
+            }
+            return new CachedRows(generation, columnNames, count, columns, nulls);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Return the first values of an integer column as objects.
+    private static Object[] box(long[] longs, boolean[] nulls, int length) {
+        Object[] values = new Object[longs.length];
+        for (int i = 0; i < length; i++) {
+            values[i] = nulls != null && nulls[i] ? null : Long.valueOf(longs[i]);
+        }
+        return values;
+    }
+
+    // Read a value of the given type from the cursor.
+    private static Object readValue(Cursor cursor, int column, int type) {
+        switch (type) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns a new cursor over the rows. Each caller gets its own cursor, so it can be moved
+     * and closed independently.
+     *
+     * @return cursor over the rows
+     */
+    Cursor newCursor() {
+        int[] projectedColumns = new int[columnNames.length];
+        for (int column = 0; column < projectedColumns.length; column++) {
+            projectedColumns[column] = column;
+        }
+        return new RowsCursor(columnNames, projectedColumns);
+    }
+
+    /**
+     * Returns a new cursor over the given columns of the rows.
+     *
+     * @param projection columns to return, or null for all columns
+     * @return cursor over the rows, or null if one of the columns isn't part of the rows
+     */
+    Cursor newCursor(String[] projection) {
+        if (projection == null) {
+            return newCursor();
+        }
+
+        // Find the position of every projected column.
+        int[] projectedColumns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            projectedColumns[i] = -1;
+            for (int column = 0; column < columnNames.length; column++) {
+                if (columnNames[column].equals(projection[i])) {
+                    projectedColumns[i] = column;
+                    break;
+                }
+            }
+            if (projectedColumns[i] == -1) {
+                return null;
+            }
+        }
+        return new RowsCursor(projection, projectedColumns);
+    }
+
+    /**
+     * Returns the number of rows.
+     *
+     * @return the number of rows
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns an estimate of the memory the rows take up.
+     *
+     * @return the estimated size in bytes
+     */
+    long estimateBytes() {
+        long bytes = OBJECT_BYTES;
+        for (int column = 0; column < columns.length; column++) {
+            if (columns[column] instanceof long[]) {
+                bytes += OBJECT_BYTES + 8L * count;
+                if (nulls[column] != null) {
+                    bytes += OBJECT_BYTES + count;
+                }
+                continue;
+            }
+            bytes += OBJECT_BYTES + (long) REFERENCE_BYTES * count;
+            for (Object value : (Object[]) columns[column]) {
+                if (value instanceof String) {
+                    bytes += 2 * OBJECT_BYTES + 2L * ((String) value).length();
+                } else if (value instanceof byte[]) {
+                    bytes += OBJECT_BYTES + ((byte[]) value).length;
+                } else if (value != null) {
+                    bytes += OBJECT_BYTES + 8;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    // Copy the digits of the value into the buffer, growing it only if they don't fit.
+    private static void copyDigits(long value, CharArrayBuffer buffer) {
+        int length = value < 0 ? 2 : 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            length++;
+        }
+        char[] data = grow(buffer, length);
+
+        // Write the digits from the last one, so the value never has to be negated.
+        int end = length;
+        long rest = value;
+        do {
+            data[--end] = (char) ('0' + Math.abs(rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            data[0] = '-';
+        }
+        buffer.sizeCopied = length;
+    }
+
+    // Copy the text into the buffer, growing it only if the text doesn't fit.
+    private static void copyText(String text, CharArrayBuffer buffer) {
+        int length = text.length();
+        text.getChars(0, length, grow(buffer, length), 0);
+        buffer.sizeCopied = length;
+    }
+
+    // Return the characters of the buffer, after growing them to at least the given length.
+    private static char[] grow(CharArrayBuffer buffer, int length) {
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        return buffer.data;
+    }
+
+    // Cursor over some of the columns of the rows.
+    private final class RowsCursor extends AbstractCursor {
+
+        // Names of the columns of this cursor, and the column of the rows each one reads.
+        private final String[] names;
+        private final int[] projectedColumns;
+
+        RowsCursor(String[] names, int[] projectedColumns) {
+            this.names = names;
+            this.projectedColumns = projectedColumns;
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return names;
+        }
+
+        @Override
+        public int getType(int column) {
+            Object values = columns[projectedColumns[column]];
+            if (values instanceof long[]) {
+                return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_INTEGER;
+            }
+            Object value = ((Object[]) values)[getPosition()];
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            int rowsColumn = projectedColumns[column];
+            if (columns[rowsColumn] instanceof long[]) {
+                return nulls[rowsColumn] != null && nulls[rowsColumn][getPosition()];
+            }
+            return ((Object[]) columns[rowsColumn])[getPosition()] == null;
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object values = columns[projectedColumns[column]];
+            if (values instanceof long[]) {
+                return ((long[]) values)[getPosition()];
+            }
+            Object value = ((Object[]) values)[getPosition()];
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).longValue();
+            }
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object values = columns[projectedColumns[column]];
+            if (values instanceof long[]) {
+                return ((long[]) values)[getPosition()];
+            }
+            Object value = ((Object[]) values)[getPosition()];
+            if (value == null) {
+                return 0;
+            } else if (value instanceof Number) {
+                return ((Number) value).doubleValue();
+            }
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public String getString(int column) {
+            if (isNull(column)) {
+                return null;
+            }
+            Object values = columns[projectedColumns[column]];
+            if (values instanceof long[]) {
+                return Long.toString(((long[]) values)[getPosition()]);
+            }
+            return ((Object[]) values)[getPosition()].toString();
+        }
+
+        @Override
+        public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+            if (isNull(column)) {
+                buffer.sizeCopied = 0;
+                return;
+            }
+            Object values = columns[projectedColumns[column]];
+            if (values instanceof long[]) {
+                copyDigits(((long[]) values)[getPosition()], buffer);
+                return;
+            }
+            Object value = ((Object[]) values)[getPosition()];
+            if (value instanceof String) {
+                copyText((String) value, buffer);
+            } else if (value instanceof Long) {
+                copyDigits((Long) value, buffer);
+            } else {
+                super.copyStringToBuffer(column, buffer);
+            }
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object values = columns[projectedColumns[column]];
+            if (values instanceof Object[]) {
+                Object value = ((Object[]) values)[getPosition()];
+                if (value == null || value instanceof byte[]) {
+                    return (byte[]) value;
+                }
+            }
+            throw new UnsupportedOperationException("Column " + names[column] + " isn't a blob");
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.ChangeEntry;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Keeps the change log of the books small, in the background.
+ * <p>
+ * Compacting first drops every change that is followed by a later change of the same book,
+ * which never loses anything a reader needs: a reader that asks for the changes after any
+ * sequence number still learns about every book that changed since, with its last change.
+ * If more changes are left than the log may hold, the oldest are dropped as well, and the
+ * change log horizon moves up to the last one dropped. Readers that are behind the horizon are
+ * told to read all books again.
+ */
+final class ChangeLogCompactor {
+
+    private static final String LOG_TAG = ChangeLogCompactor.class.getSimpleName();
+
+    // SQL statement used to drop the changes that are followed by a later change of the same
+    // book.
+    private static final String SQL_DROP_SUPERSEDED = "DELETE FROM " + ChangeEntry.TABLE_NAME
+            + " WHERE " + ChangeEntry._ID + " NOT IN (SELECT MAX(" + ChangeEntry._ID + ") FROM "
+            + ChangeEntry.TABLE_NAME + " GROUP BY " + ChangeEntry.COLUMN_CHANGE_BOOK_ID + ");";
+
+    // SQL statement used to find the newest change that doesn't fit in the log.
+    private static final String SQL_LAST_DROPPED = "SELECT " + ChangeEntry._ID + " FROM "
+            + ChangeEntry.TABLE_NAME + " ORDER BY " + ChangeEntry._ID + " DESC LIMIT 1 OFFSET ?;";
+
+    // Database helper object for the database that holds the change log.
+    private final SQLiteOpenHelper dbHelper;
+
+    // Held while the log is compacted, so the database isn't replaced meanwhile.
+    private final Lock databaseLock;
+
+    // Largest number of changes the log keeps after a compaction.
+    private final int maxChanges;
+
+    // Number of writes after which the log is compacted right away.
+    private final int maxPendingWrites;
+
+    // How long after a write the log is compacted at the latest, in milliseconds.
+    private final long delayMillis;
+
+    // Thread and handler the compaction runs on.
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+
+    // Number of writes since the last compaction was scheduled. Guarded by this.
+    private int pendingWrites;
+
+    // Whether a compaction has been scheduled. Guarded by this.
+    private boolean compactionScheduled;
+
+    // Compacts the log on the compaction thread.
+    private final Runnable compactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ChangeLogCompactor.this) {
+                pendingWrites = 0;
+                compactionScheduled = false;
+            }
+            databaseLock.lock();
+            try {
+                compact(dbHelper.getWritableDatabase(), maxChanges);
+            } catch (SQLiteException e) {
+                // The database may be full, or locked after a restore. The change log is still
+                // correct without the compaction, so try again later.
+                Log.w(LOG_TAG, "Failed to compact the change log", e);
+                retry();
+            } finally {
+                databaseLock.unlock();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ChangeLogCompactor}.
+     *
+     * @param dbHelper         helper for the database that holds the change log
+     * @param databaseLock     held while the log is compacted
+     * @param maxChanges       largest number of changes the log keeps after a compaction
+     * @param maxPendingWrites number of writes after which the log is compacted right away
+     * @param delayMillis      how long after a write the log is compacted at the latest
+     */
+    ChangeLogCompactor(SQLiteOpenHelper dbHelper, Lock databaseLock, int maxChanges,
+                       int maxPendingWrites, long delayMillis) {
+        this.dbHelper = dbHelper;
+        this.databaseLock = databaseLock;
+        this.maxChanges = maxChanges;
+        this.maxPendingWrites = maxPendingWrites;
+        this.delayMillis = delayMillis;
+        handlerThread = new HandlerThread(ChangeLogCompactor.class.getSimpleName());
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * Records that a write was committed, and schedules a compaction.
+     */
+    void onWrite() {
+        synchronized (this) {
+            pendingWrites++;
+            if (pendingWrites >= maxPendingWrites) {
+                // Enough writes have piled up, so compact now instead of waiting.
+                handler.removeCallbacks(compactRunnable);
+                pendingWrites = 0;
+                compactionScheduled = true;
+                handler.post(compactRunnable);
+                return;
+            }
+            if (compactionScheduled) {
+                return;
+            }
+            compactionScheduled = true;
+        }
+        handler.postDelayed(compactRunnable, delayMillis);
+    }
+
+    // Schedule another compaction after a failed one, unless one has been scheduled already.
+    private void retry() {
+        synchronized (this) {
+            if (compactionScheduled) {
+                return;
+            }
+            compactionScheduled = true;
+        }
+        handler.postDelayed(compactRunnable, delayMillis);
+    }
+
+    /**
+     * Drops the changes that are followed by a later change of the same book, then the oldest
+     * changes that don't fit in the log, moving the horizon past them.
+     *
+     * @param database   to compact the change log of
+     * @param maxChanges largest number of changes to keep
+     */
+    static void compact(SQLiteDatabase database, int maxChanges) {
+        database.beginTransaction();
+        try {
+            database.execSQL(SQL_DROP_SUPERSEDED);
+
+            Cursor cursor = database.rawQuery(SQL_LAST_DROPPED,
+                    new String[]{String.valueOf(maxChanges)});
+            try {
+                if (cursor.moveToFirst()) {
+                    long lastDropped = cursor.getLong(0);
+                    database.execSQL("DELETE FROM " + ChangeEntry.TABLE_NAME + " WHERE "
+                            + ChangeEntry._ID + " <= ?;", new Object[]{lastDropped});
+                    database.execSQL("UPDATE " + BookDbHelper.TABLE_CHANGES_HORIZON + " SET "
+                            + BookDbHelper.COLUMN_HORIZON + " = MAX(" + BookDbHelper.COLUMN_HORIZON
+                            + ", ?);", new Object[]{lastDropped});
+                }
+            } finally {
+                cursor.close();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Stops the compaction thread, waiting for a compaction that is already running.
+     */
+    void close() {
+        handler.removeCallbacks(compactRunnable);
+        handlerThread.quitSafely();
+        try {
+            handlerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
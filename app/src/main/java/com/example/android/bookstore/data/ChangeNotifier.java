@@ -0,0 +1,159 @@
+package com.example.android.bookstore.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sends the provider's change notifications, coalescing bursts of changes.
+ * <p>
+ * The first change starts a short window, and every URI that changes within the window is
+ * notified once when the window closes. A URI is left out if an ancestor URI is also being
+ * notified, since observers of descendants hear about the ancestor anyway. If too many single
+ * rows change within one window, they are collapsed into one notification of their collection.
+ */
+final class ChangeNotifier {
+
+    // Largest number of URIs kept for one window, before they are collapsed.
+    private static final int MAX_PENDING_URIS = 32;
+
+    // Content resolver the notifications are sent through.
+    private final ContentResolver contentResolver;
+
+    // URI that the pending URIs are collapsed into, when too many of them change.
+    private final Uri collapseUri;
+
+    // How long changes are collected before they are notified, in milliseconds.
+    private final long windowMillis;
+
+    // Thread and handler the notifications are sent on.
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+
+    // URIs that changed within the current window. Guarded by this.
+    private final Set<Uri> pendingUris = new LinkedHashSet<>();
+
+    // Whether the end of the current window has been scheduled. Guarded by this.
+    private boolean flushScheduled;
+
+    // Sends the pending notifications when the window closes.
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Constructs a new {@link ChangeNotifier}.
+     *
+     * @param contentResolver content resolver to send the notifications through
+     * @param collapseUri     URI to notify instead, when too many of its rows change at once
+     * @param windowMillis    how long changes are collected before they are notified
+     */
+    ChangeNotifier(ContentResolver contentResolver, Uri collapseUri, long windowMillis) {
+        this.contentResolver = contentResolver;
+        this.collapseUri = collapseUri;
+        this.windowMillis = windowMillis;
+        handlerThread = new HandlerThread(ChangeNotifier.class.getSimpleName());
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * Records that the data at the given URI has changed. Listeners are notified when the
+     * current window closes.
+     *
+     * @param uri that has changed
+     */
+    void notifyChange(Uri uri) {
+        synchronized (this) {
+            addPendingUri(uri);
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        handler.postDelayed(flushRunnable, windowMillis);
+    }
+
+    /**
+     * Records that the data at all of the given URIs has changed.
+     *
+     * @param uris that have changed
+     */
+    void notifyChange(Iterable<Uri> uris) {
+        synchronized (this) {
+            for (Uri uri : uris) {
+                addPendingUri(uri);
+            }
+            if (flushScheduled) {
+                return;
+            }
+            flushScheduled = true;
+        }
+        handler.postDelayed(flushRunnable, windowMillis);
+    }
+
+    /**
+     * Sends the pending notifications right away and stops the notification thread.
+     */
+    void close() {
+        handler.removeCallbacks(flushRunnable);
+        flush();
+        handlerThread.quit();
+    }
+
+    // Notify all listeners of the URIs that changed within the window that just closed.
+    private void flush() {
+        Uri[] uris;
+        synchronized (this) {
+            uris = pendingUris.toArray(new Uri[pendingUris.size()]);
+            pendingUris.clear();
+            flushScheduled = false;
+        }
+        for (Uri uri : uris) {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+
+    // Add a URI to the current window, leaving out URIs that are covered by an ancestor.
+    private void addPendingUri(Uri uri) {
+        Iterator<Uri> iterator = pendingUris.iterator();
+        while (iterator.hasNext()) {
+            Uri pendingUri = iterator.next();
+            if (isAncestorOrSelf(pendingUri, uri)) {
+                // This change is already covered.
+                return;
+            }
+            if (isAncestorOrSelf(uri, pendingUri)) {
+                // This change covers a change that was already pending.
+                iterator.remove();
+            }
+        }
+        pendingUris.add(uri);
+
+        // Too many rows changed, so notify their collection once instead.
+        if (pendingUris.size() > MAX_PENDING_URIS) {
+            addPendingUri(collapseUri);
+        }
+    }
+
+    // Return true if the first URI is the same as the second URI or one of its ancestors.
+    private static boolean isAncestorOrSelf(Uri ancestor, Uri uri) {
+        if (!ancestor.getScheme().equals(uri.getScheme())
+                || !ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return ancestorSegments.size() <= segments.size()
+                && ancestorSegments.equals(segments.subList(0, ancestorSegments.size()));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.bookstore.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of a CSV file one at a time, so a file of any size can be read in a
+ * bounded amount of memory.
+ * <p>
+ * Fields are separated by commas and records by line breaks. A field in double quotes may
+ * contain commas, line breaks and doubled double quotes, which stand for one double quote.
+ */
+final class CsvReader {
+
+    // Reader the records are read from.
+    private final Reader reader;
+
+    // Fields of the record being read, and the field being read. Reused for every record.
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+
+    // Character read ahead of the current one, or -2 if there is none.
+    private int peeked = -2;
+
+    // Number of the line the next record starts on, counting from 1.
+    private int lineNumber = 1;
+
+    /**
+     * Constructs a new {@link CsvReader}.
+     *
+     * @param reader to read the records from. It should be buffered.
+     */
+    CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Returns the number of the line the next record starts on.
+     *
+     * @return the line number, counting from 1
+     */
+    int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the fields of the record, or null at the end of the file
+     * @throws IOException if the file can't be read, or ends inside a quoted field
+     */
+    String[] readRecord() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Quoted field isn't closed on line " + lineNumber);
+                }
+                if (c == '"') {
+                    if (peek() == '"') {
+                        // A doubled quote stands for one quote.
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        lineNumber++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                // The record ends at a line break, which may be a CR LF pair.
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (c != -1) {
+                    lineNumber++;
+                }
+                fields.add(field.toString());
+                return fields.toArray(new String[fields.size()]);
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    // Read the next character, or -1 at the end of the file.
+    private int read() throws IOException {
+        if (peeked != -2) {
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    // Return the next character without reading it, or -1 at the end of the file.
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+}
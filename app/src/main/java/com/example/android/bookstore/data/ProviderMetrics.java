@@ -0,0 +1,270 @@
+package com.example.android.bookstore.data;
+
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and throughput metrics of the provider, per operation and URI match code.
+ * <p>
+ * Every operation on a URI has a fixed slot of counters: the number of calls, their total and
+ * longest latency, the rows they returned or affected, and a latency histogram. The histogram
+ * has a bucket per power of two microseconds, so percentiles are known to within a factor of
+ * two. Recording only adds to atomic counters, so it never allocates or takes a lock, and
+ * calls on different binder threads don't wait for each other. Readers see each counter as
+ * it is, without a snapshot across counters.
+ */
+final class ProviderMetrics {
+
+    // Operations that are measured.
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+
+    // Names of the operations, in the order of their numbers.
+    private static final String[] OPERATION_NAMES = {"query", "insert", "update", "delete"};
+
+    // Number of latency buckets. Bucket 0 counts calls under one microsecond, bucket i counts
+    // calls from 2^(i-1) up to 2^i microseconds, and the last bucket counts everything longer,
+    // from about two seconds on.
+    static final int BUCKET_COUNT = 23;
+
+    // Positions of the counters in a slot, followed by the latency buckets.
+    private static final int CALLS = 0;
+    private static final int TOTAL_NANOS = 1;
+    private static final int MAX_NANOS = 2;
+    private static final int ROWS = 3;
+    private static final int MAX_ROWS = 4;
+    private static final int FIRST_BUCKET = 5;
+    private static final int SLOT_SIZE = FIRST_BUCKET + BUCKET_COUNT;
+
+    // Match code of the first URI, and the names of the URIs in the order of their codes.
+    private final int firstCode;
+    private final String[] uriNames;
+
+    // Counters of all slots, one slot per operation and URI.
+    private final AtomicLongArray counters;
+
+    // Number of change notifications sent per URI.
+    private final AtomicLongArray notifications;
+
+    /**
+     * Constructs a new {@link ProviderMetrics}.
+     *
+     * @param firstCode match code of the first URI
+     * @param uriNames  names of the URIs, in the order of their consecutive match codes
+     */
+    ProviderMetrics(int firstCode, String[] uriNames) {
+        this.firstCode = firstCode;
+        this.uriNames = uriNames.clone();
+        counters = new AtomicLongArray(OPERATION_NAMES.length * uriNames.length * SLOT_SIZE);
+        notifications = new AtomicLongArray(uriNames.length);
+    }
+
+    /**
+     * Records a finished call. Calls on URIs without a known match code are ignored.
+     *
+     * @param operation    that was called, like {@link #QUERY}
+     * @param code         URI match code of the call
+     * @param elapsedNanos how long the call took
+     * @param rows         number of rows returned or affected
+     */
+    void record(int operation, int code, long elapsedNanos, int rows) {
+        int uri = code - firstCode;
+        if (uri < 0 || uri >= uriNames.length) {
+            return;
+        }
+        int slot = slotOf(operation, code);
+        counters.incrementAndGet(slot + CALLS);
+        counters.addAndGet(slot + TOTAL_NANOS, elapsedNanos);
+        raiseTo(slot + MAX_NANOS, elapsedNanos);
+        if (rows > 0) {
+            counters.addAndGet(slot + ROWS, rows);
+            raiseTo(slot + MAX_ROWS, rows);
+        }
+        counters.incrementAndGet(slot + FIRST_BUCKET + bucketOf(elapsedNanos));
+    }
+
+    /**
+     * Records a change notification.
+     *
+     * @param code URI match code of the changed URI
+     */
+    void recordNotification(int code) {
+        int uri = code - firstCode;
+        if (uri >= 0 && uri < uriNames.length) {
+            notifications.incrementAndGet(uri);
+        }
+    }
+
+    /**
+     * Returns the latency bucket of a call.
+     *
+     * @param elapsedNanos how long the call took
+     * @return the number of the bucket that counts the call
+     */
+    static int bucketOf(long elapsedNanos) {
+        long micros = elapsedNanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Returns the number of calls of an operation on a URI.
+     *
+     * @param operation that was called, like {@link #QUERY}
+     * @param code      URI match code
+     * @return the number of calls
+     */
+    long calls(int operation, int code) {
+        return counter(operation, code, CALLS);
+    }
+
+    /**
+     * Returns the number of rows an operation on a URI returned or affected.
+     *
+     * @param operation that was called, like {@link #QUERY}
+     * @param code      URI match code
+     * @return the number of rows of all calls
+     */
+    long rows(int operation, int code) {
+        return counter(operation, code, ROWS);
+    }
+
+    /**
+     * Returns the number of change notifications sent for a URI.
+     *
+     * @param code URI match code
+     * @return the number of notifications
+     */
+    long notifications(int code) {
+        return notifications.get(code - firstCode);
+    }
+
+    /**
+     * Returns an upper bound of a latency percentile of an operation on a URI.
+     *
+     * @param operation  that was called, like {@link #QUERY}
+     * @param code       URI match code
+     * @param percentile between 0 and 100
+     * @return the upper bound of the latency bucket that holds the percentile, in
+     * microseconds, or 0 if there were no calls
+     */
+    long percentileMicros(int operation, int code, double percentile) {
+        int slot = slotOf(operation, code);
+        long calls = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            calls += counters.get(slot + FIRST_BUCKET + i);
+        }
+        if (calls == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(calls * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT - 1; i++) {
+            seen += counters.get(slot + FIRST_BUCKET + i);
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        // The last bucket has no upper bound, so report the longest call.
+        return counters.get(slot + MAX_NANOS) / 1000;
+    }
+
+    /**
+     * Returns the metrics of every operation and URI that was called, and the notifications
+     * of every URI. The keys are described in {@link BookContract#METHOD_METRICS}.
+     *
+     * @return a bundle of the metrics
+     */
+    Bundle toBundle() {
+        Bundle metrics = new Bundle();
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < uriNames.length; uri++) {
+                int slot = (operation * uriNames.length + uri) * SLOT_SIZE;
+                if (counters.get(slot + CALLS) == 0) {
+                    continue;
+                }
+                Bundle slotMetrics = new Bundle();
+                slotMetrics.putLong(BookContract.EXTRA_CALLS, counters.get(slot + CALLS));
+                slotMetrics.putLong(BookContract.EXTRA_TOTAL_NANOS,
+                        counters.get(slot + TOTAL_NANOS));
+                slotMetrics.putLong(BookContract.EXTRA_MAX_NANOS, counters.get(slot + MAX_NANOS));
+                slotMetrics.putLong(BookContract.EXTRA_ROWS, counters.get(slot + ROWS));
+                slotMetrics.putLong(BookContract.EXTRA_MAX_ROWS, counters.get(slot + MAX_ROWS));
+                long[] histogram = new long[BUCKET_COUNT];
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    histogram[i] = counters.get(slot + FIRST_BUCKET + i);
+                }
+                slotMetrics.putLongArray(BookContract.EXTRA_LATENCY_HISTOGRAM, histogram);
+                metrics.putBundle(OPERATION_NAMES[operation] + ":" + uriNames[uri], slotMetrics);
+            }
+        }
+
+        Bundle notificationCounts = new Bundle();
+        for (int uri = 0; uri < uriNames.length; uri++) {
+            long count = notifications.get(uri);
+            if (count > 0) {
+                notificationCounts.putLong(uriNames[uri], count);
+            }
+        }
+        metrics.putBundle(BookContract.EXTRA_NOTIFICATIONS, notificationCounts);
+        return metrics;
+    }
+
+    /**
+     * Prints a table of the metrics of every operation and URI that was called, followed by
+     * the notifications of every URI. Latencies are in microseconds.
+     *
+     * @param writer to print to
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Provider metrics (latency in microseconds):");
+        writer.printf("  %-20s %8s %8s %8s %8s %8s %10s %10s %8s%n", "operation", "calls",
+                "mean", "p50", "p90", "p99", "max", "rows", "max rows");
+        for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+            for (int uri = 0; uri < uriNames.length; uri++) {
+                int code = firstCode + uri;
+                int slot = slotOf(operation, code);
+                long calls = counters.get(slot + CALLS);
+                if (calls == 0) {
+                    continue;
+                }
+                writer.printf("  %-20s %8d %8d %8d %8d %8d %10d %10d %8d%n",
+                        OPERATION_NAMES[operation] + ":" + uriNames[uri], calls,
+                        counters.get(slot + TOTAL_NANOS) / calls / 1000,
+                        percentileMicros(operation, code, 50),
+                        percentileMicros(operation, code, 90),
+                        percentileMicros(operation, code, 99),
+                        counters.get(slot + MAX_NANOS) / 1000,
+                        counters.get(slot + ROWS), counters.get(slot + MAX_ROWS));
+            }
+        }
+        writer.println("Change notifications:");
+        for (int uri = 0; uri < uriNames.length; uri++) {
+            long count = notifications.get(uri);
+            if (count > 0) {
+                writer.printf("  %-20s %8d%n", uriNames[uri], count);
+            }
+        }
+    }
+
+    // Return the position of the first counter of the slot of an operation on a URI.
+    private int slotOf(int operation, int code) {
+        return (operation * uriNames.length + code - firstCode) * SLOT_SIZE;
+    }
+
+    // Return a counter of the slot of an operation on a URI.
+    private long counter(int operation, int code, int counter) {
+        return counters.get(slotOf(operation, code) + counter);
+    }
+
+    // Raise the counter at the given position to the given value, if it is lower.
+    private void raiseTo(int position, long value) {
+        long current = counters.get(position);
+        while (value > current && !counters.compareAndSet(position, current, value)) {
+            current = counters.get(position);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.util.LruCache;
+
+/**
+ * Cache of the results of book list queries, keyed by the normalized query.
+ * <p>
+ * Every result is tagged with the write generation of the database it was read at, and is only
+ * served while the generation hasn't changed, so any committed write invalidates all results at
+ * once. The results are kept within a memory budget, evicting the least recently used first.
+ */
+final class QueryCache {
+
+    // Cached results, sized by their estimated memory in bytes.
+    private final LruCache<String, CachedRows> results;
+
+    /**
+     * Constructs a new {@link QueryCache}.
+     *
+     * @param maxBytes memory budget for the cached results, in bytes
+     */
+    QueryCache(int maxBytes) {
+        results = new LruCache<String, CachedRows>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, CachedRows rows) {
+                return (int) Math.min(Integer.MAX_VALUE, rows.estimateBytes());
+            }
+        };
+    }
+
+    /**
+     * Returns a cursor over the cached result of a query, if it was read at the given
+     * generation.
+     *
+     * @param key        of the query, from {@link #key}
+     * @param generation current write generation of the database
+     * @return cursor over the result, or null if it isn't cached or is out of date
+     */
+    Cursor get(String key, long generation) {
+        CachedRows rows = results.get(key);
+        if (rows == null) {
+            return null;
+        }
+        if (rows.generation != generation) {
+            results.remove(key);
+            return null;
+        }
+        return rows.newCursor();
+    }
+
+    /**
+     * Adds the result of a query, unless it doesn't fit in the memory budget.
+     *
+     * @param key  of the query, from {@link #key}
+     * @param rows the result, read at {@link CachedRows#generation}
+     */
+    void put(String key, CachedRows rows) {
+        if (rows.estimateBytes() <= results.maxSize()) {
+            results.put(key, rows);
+        }
+    }
+
+    /**
+     * Returns whether a result of the given size could fit in the memory budget, counting only
+     * the smallest possible size of its values. Larger results aren't worth reading into memory.
+     *
+     * @param rows    number of rows of the result
+     * @param columns number of columns of the result
+     * @return false if the result is sure to be too large
+     */
+    boolean mightFit(int rows, int columns) {
+        return 8L * rows * columns <= results.maxSize();
+    }
+
+    /**
+     * Returns the number of lookups that found a cached result, even if it was out of date.
+     *
+     * @return the number of hits
+     */
+    int hitCount() {
+        return results.hitCount();
+    }
+
+    /**
+     * Returns the number of lookups that didn't find a cached result.
+     *
+     * @return the number of misses
+     */
+    int missCount() {
+        return results.missCount();
+    }
+
+    /**
+     * Returns the key for a query. Queries that only differ in whitespace outside of quotes
+     * get the same key. Every part is prefixed with its length, so the parts can't run into
+     * each other.
+     *
+     * @param query         encoded query parameters of the URI, or null
+     * @param projection    columns of the query, or null for all columns
+     * @param selection     selection of the query, or null
+     * @param selectionArgs arguments of the selection, or null
+     * @param sortOrder     sort order of the query, or null
+     * @return the key of the query
+     */
+    static String key(String query, String[] projection, String selection,
+                      String[] selectionArgs, String sortOrder) {
+        StringBuilder key = new StringBuilder();
+        appendPart(key, query);
+        appendParts(key, projection);
+        appendPart(key, normalize(selection));
+        appendParts(key, selectionArgs);
+        appendPart(key, normalize(sortOrder));
+        return key.toString();
+    }
+
+    // Append a part of the key, or a marker if it is null.
+    private static void appendPart(StringBuilder key, String part) {
+        if (part == null) {
+            key.append('-');
+        } else {
+            key.append(part.length()).append(':').append(part);
+        }
+    }
+
+    // Append a list of parts of the key, or a marker if it is null.
+    private static void appendParts(StringBuilder key, String[] parts) {
+        if (parts == null) {
+            key.append('-');
+            return;
+        }
+        key.append('[').append(parts.length).append(']');
+        for (String part : parts) {
+            appendPart(key, part);
+        }
+    }
+
+    // Collapse every run of whitespace outside of quotes into a single space, and trim the
+    // ends. Quoted text is kept as it is, since it is part of the values being compared.
+    static String normalize(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        StringBuilder normalized = new StringBuilder(sql.length());
+        char quote = 0;
+        boolean pendingSpace = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            normalized.append(c);
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (c == quote) {
+                // A doubled quote inside quoted text ends and reopens the quote, which keeps
+                // the text between them as it is.
+                quote = 0;
+            }
+        }
+        return normalized.toString();
+    }
+}
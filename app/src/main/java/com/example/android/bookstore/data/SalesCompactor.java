@@ -0,0 +1,184 @@
+package com.example.android.bookstore.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.android.bookstore.data.BookContract.BookEntry;
+import com.example.android.bookstore.data.BookContract.SaleEntry;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Folds the sales ledger into the quantity snapshots of the books table in the background.
+ * <p>
+ * A sale only appends a row to the ledger, and the current stock of a book is its snapshot
+ * minus the sales after the last compaction. Compacting takes those sales off the snapshots
+ * and moves the compaction mark past them, in one transaction. The current stock doesn't
+ * change, so nobody has to be notified. The ledger itself is kept as the sales history.
+ */
+final class SalesCompactor {
+
+    private static final String LOG_TAG = SalesCompactor.class.getSimpleName();
+
+    // SQL statement used to take the sales in a range of IDs off the books' quantities. Every
+    // sale counts towards the version of its book, so their number is added to the stored
+    // versions, which keeps the current versions as they were.
+    private static final String SQL_COMPACT = "UPDATE " + BookEntry.TABLE_NAME + " SET "
+            + BookEntry.COLUMN_BOOK_QUANTITY + " = " + BookEntry.COLUMN_BOOK_QUANTITY
+            + " - (SELECT SUM(" + SaleEntry.COLUMN_SALE_AMOUNT + ") FROM " + SaleEntry.TABLE_NAME
+            + " WHERE " + SaleEntry.COLUMN_SALE_BOOK_ID + " = " + BookEntry.TABLE_NAME + "."
+            + BookEntry._ID + " AND " + SaleEntry._ID + " > ? AND " + SaleEntry._ID + " <= ?), "
+            + BookEntry.COLUMN_BOOK_VERSION + " = " + BookEntry.COLUMN_BOOK_VERSION
+            + " + (SELECT COUNT(*) FROM " + SaleEntry.TABLE_NAME + " WHERE "
+            + SaleEntry.COLUMN_SALE_BOOK_ID + " = " + BookEntry.TABLE_NAME + "." + BookEntry._ID
+            + " AND " + SaleEntry._ID + " > ? AND " + SaleEntry._ID + " <= ?)"
+            + " WHERE " + BookEntry._ID + " IN (SELECT " + SaleEntry.COLUMN_SALE_BOOK_ID
+            + " FROM " + SaleEntry.TABLE_NAME + " WHERE " + SaleEntry._ID + " > ? AND "
+            + SaleEntry._ID + " <= ?);";
+
+    // SQL statements used to read the last sale, and the last sale that has been compacted.
+    private static final String SQL_LAST_SALE_ID = "SELECT IFNULL(MAX(" + SaleEntry._ID
+            + "), 0) FROM " + SaleEntry.TABLE_NAME + ";";
+    private static final String SQL_LAST_COMPACTED_SALE_ID = "SELECT "
+            + BookDbHelper.COLUMN_LAST_SALE_ID + " FROM " + BookDbHelper.TABLE_SALES_COMPACTION
+            + ";";
+
+    // Database helper object for the database that holds the ledger.
+    private final SQLiteOpenHelper dbHelper;
+
+    // Held while the ledger is compacted, so the database isn't replaced meanwhile.
+    private final Lock databaseLock;
+
+    // Number of sales after which the ledger is compacted right away.
+    private final int maxPendingSales;
+
+    // How long after a sale the ledger is compacted at the latest, in milliseconds.
+    private final long delayMillis;
+
+    // Thread and handler the compaction runs on.
+    private final HandlerThread handlerThread;
+    private final Handler handler;
+
+    // Number of sales since the last compaction was scheduled. Guarded by this.
+    private int pendingSales;
+
+    // Whether a compaction has been scheduled. Guarded by this.
+    private boolean compactionScheduled;
+
+    // Compacts the ledger on the compaction thread.
+    private final Runnable compactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (SalesCompactor.this) {
+                pendingSales = 0;
+                compactionScheduled = false;
+            }
+            databaseLock.lock();
+            try {
+                compact(dbHelper.getWritableDatabase());
+            } catch (SQLiteException e) {
+                // The database may be full, or locked after a restore. The sales ledger is still
+                // correct without the compaction, so try again later.
+                Log.w(LOG_TAG, "Failed to compact the sales ledger", e);
+                retry();
+            } finally {
+                databaseLock.unlock();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link SalesCompactor}.
+     *
+     * @param dbHelper        helper for the database that holds the ledger
+     * @param databaseLock    held while the ledger is compacted
+     * @param maxPendingSales number of sales after which the ledger is compacted right away
+     * @param delayMillis     how long after a sale the ledger is compacted at the latest
+     */
+    SalesCompactor(SQLiteOpenHelper dbHelper, Lock databaseLock, int maxPendingSales,
+                   long delayMillis) {
+        this.dbHelper = dbHelper;
+        this.databaseLock = databaseLock;
+        this.maxPendingSales = maxPendingSales;
+        this.delayMillis = delayMillis;
+        handlerThread = new HandlerThread(SalesCompactor.class.getSimpleName());
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    /**
+     * Records that a sale was added to the ledger, and schedules a compaction.
+     */
+    void onSale() {
+        synchronized (this) {
+            pendingSales++;
+            if (pendingSales >= maxPendingSales) {
+                // Enough sales have piled up, so compact now instead of waiting.
+                handler.removeCallbacks(compactRunnable);
+                pendingSales = 0;
+                compactionScheduled = true;
+                handler.post(compactRunnable);
+                return;
+            }
+            if (compactionScheduled) {
+                return;
+            }
+            compactionScheduled = true;
+        }
+        handler.postDelayed(compactRunnable, delayMillis);
+    }
+
+    // Schedule another compaction after a failed one, unless one has been scheduled already.
+    private void retry() {
+        synchronized (this) {
+            if (compactionScheduled) {
+                return;
+            }
+            compactionScheduled = true;
+        }
+        handler.postDelayed(compactRunnable, delayMillis);
+    }
+
+    /**
+     * Folds all sales that haven't been compacted yet into the quantities of their books.
+     * May be called inside a transaction, for example before a quantity is overwritten.
+     *
+     * @param database to compact the ledger of
+     */
+    static void compact(SQLiteDatabase database) {
+        database.beginTransaction();
+        try {
+            long lastCompactedSaleId = DatabaseUtils.longForQuery(database,
+                    SQL_LAST_COMPACTED_SALE_ID, null);
+            long lastSaleId = DatabaseUtils.longForQuery(database, SQL_LAST_SALE_ID, null);
+            if (lastSaleId > lastCompactedSaleId) {
+                database.execSQL(SQL_COMPACT, new Object[]{lastCompactedSaleId, lastSaleId,
+                        lastCompactedSaleId, lastSaleId, lastCompactedSaleId, lastSaleId});
+                database.execSQL("UPDATE " + BookDbHelper.TABLE_SALES_COMPACTION + " SET "
+                        + BookDbHelper.COLUMN_LAST_SALE_ID + " = ?;", new Object[]{lastSaleId});
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Stops the compaction thread, waiting for a compaction that is already running. Sales that
+     * haven't been compacted yet stay in the ledger, and are still part of the current stock.
+     */
+    void close() {
+        handler.removeCallbacks(compactRunnable);
+        handlerThread.quitSafely();
+        try {
+            handlerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
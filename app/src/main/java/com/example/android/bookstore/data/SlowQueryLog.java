@@ -0,0 +1,252 @@
+package com.example.android.bookstore.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent queries of the provider that took longer than a threshold, together
+ * with their query plans.
+ * <p>
+ * The provider builds the SQL of its queries itself, and hands the SQL and arguments of each
+ * query to the log before running it. The log remembers them until the provider call ends,
+ * which costs a single reference per query. Only when a query turns out to be slow is its plan
+ * read with EXPLAIN QUERY PLAN, and it is kept in a ring buffer of a fixed size, which drops
+ * the oldest entry when it is full.
+ */
+final class SlowQueryLog {
+
+    // Tag for the log messages.
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /**
+     * A slow query.
+     */
+    static final class Entry {
+
+        // When the query finished, in milliseconds since the epoch.
+        final long timeMillis;
+
+        // URI that was queried, and the SQL and arguments of the query.
+        final String uri;
+        final String sql;
+        final String[] args;
+
+        // How long the query took, and the number of rows it returned.
+        final long elapsedNanos;
+        final int rows;
+
+        // Query plan of the SQL, one step per line.
+        final String plan;
+
+        Entry(long timeMillis, String uri, String sql, String[] args, long elapsedNanos,
+              int rows, String plan) {
+            this.timeMillis = timeMillis;
+            this.uri = uri;
+            this.sql = sql;
+            this.args = args;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+            this.plan = plan;
+        }
+    }
+
+    // SQL and arguments of a query.
+    private static final class Query {
+        final String sql;
+        final String[] args;
+
+        Query(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    // Last query of the provider call running on each thread, or null if it hasn't run one.
+    // Set and cleared by the provider within a single call.
+    private final ThreadLocal<Query> lastQuery = new ThreadLocal<>();
+
+    // Ring buffer of the slow queries, the position of the next entry, and the number of
+    // entries. Guarded by this.
+    private final Entry[] entries;
+    private int next;
+    private int count;
+
+    // Queries that take at least this long are logged, in nanoseconds.
+    private volatile long thresholdNanos;
+
+    /**
+     * Constructs a new {@link SlowQueryLog}.
+     *
+     * @param capacity        largest number of slow queries that are kept
+     * @param thresholdMillis queries that take at least this long are logged
+     */
+    SlowQueryLog(int capacity, long thresholdMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Slow query log requires a valid capacity.");
+        }
+        entries = new Entry[capacity];
+        setThresholdMillis(thresholdMillis);
+    }
+
+    /**
+     * Remembers a query as the last one of the provider call running on this thread.
+     *
+     * @param sql  of the query
+     * @param args arguments of the query
+     */
+    void setLastQuery(String sql, String[] args) {
+        lastQuery.set(new Query(sql, args == null ? null : args.clone()));
+    }
+
+    /**
+     * Forgets the last query of this thread. Called when a provider call ends, so a call that
+     * reads no SQL isn't blamed on the one before it.
+     */
+    void clearLastQuery() {
+        lastQuery.remove();
+    }
+
+    /**
+     * Sets the threshold of the log.
+     *
+     * @param thresholdMillis queries that take at least this long are logged
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow query log requires a valid threshold.");
+        }
+        thresholdNanos = thresholdMillis * 1000000;
+    }
+
+    /**
+     * Returns whether a query took long enough to be logged.
+     *
+     * @param elapsedNanos how long the query took
+     * @return true if the query is slow
+     */
+    boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs the last query of this thread, with its query plan. If the call didn't run a query,
+     * because its result was cached, only the URI is logged.
+     *
+     * @param database     the query ran on
+     * @param uri          that was queried
+     * @param elapsedNanos how long the query took
+     * @param rows         number of rows the query returned
+     */
+    void logLastQuery(SQLiteDatabase database, String uri, long elapsedNanos, int rows) {
+        Query query = lastQuery.get();
+        lastQuery.remove();
+        String sql = query == null ? null : query.sql;
+        String plan = sql == null ? null : explain(database, sql);
+        add(new Entry(System.currentTimeMillis(), uri, sql, query == null ? null : query.args,
+                elapsedNanos, rows, plan));
+        Log.w(LOG_TAG, "Slow query of " + uri + " took " + elapsedNanos / 1000000 + " ms: "
+                + sql);
+    }
+
+    /**
+     * Adds a slow query to the log, dropping the oldest one if the log is full.
+     *
+     * @param entry the slow query
+     */
+    synchronized void add(Entry entry) {
+        entries[next] = entry;
+        next = (next + 1) % entries.length;
+        count = Math.min(count + 1, entries.length);
+    }
+
+    /**
+     * Returns the slow queries in the log.
+     *
+     * @return the slow queries, newest first
+     */
+    synchronized Entry[] getEntries() {
+        Entry[] newestFirst = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            newestFirst[i] = entries[(next - 1 - i + entries.length) % entries.length];
+        }
+        return newestFirst;
+    }
+
+    /**
+     * Returns the slow queries in the log as bundles, with the keys described in
+     * {@link BookContract#METHOD_SLOW_QUERIES}.
+     *
+     * @return a bundle that holds the list of slow queries, newest first
+     */
+    Bundle toBundle() {
+        ArrayList<Bundle> queries = new ArrayList<>();
+        for (Entry entry : getEntries()) {
+            Bundle query = new Bundle();
+            query.putLong(BookContract.EXTRA_TIME_MILLIS, entry.timeMillis);
+            query.putString(BookContract.EXTRA_URI, entry.uri);
+            query.putString(BookContract.EXTRA_SQL, entry.sql);
+            query.putStringArray(BookContract.EXTRA_ARGS, entry.args);
+            query.putLong(BookContract.EXTRA_ELAPSED_NANOS, entry.elapsedNanos);
+            query.putInt(BookContract.EXTRA_ROWS, entry.rows);
+            query.putString(BookContract.EXTRA_QUERY_PLAN, entry.plan);
+            queries.add(query);
+        }
+        Bundle result = new Bundle();
+        result.putParcelableArrayList(BookContract.EXTRA_SLOW_QUERIES, queries);
+        return result;
+    }
+
+    /**
+     * Prints the slow queries in the log, newest first.
+     *
+     * @param writer to print to
+     */
+    void dump(PrintWriter writer) {
+        Entry[] newestFirst = getEntries();
+        writer.println("Slow queries (at least " + thresholdNanos / 1000000 + " ms): "
+                + newestFirst.length);
+        for (Entry entry : newestFirst) {
+            writer.println("  " + entry.uri + ": " + entry.elapsedNanos / 1000 + " us, "
+                    + entry.rows + " rows");
+            writer.println("    SQL: " + entry.sql);
+            writer.println("    Args: " + Arrays.toString(entry.args));
+            if (entry.plan != null) {
+                for (String step : entry.plan.split("\n")) {
+                    writer.println("    Plan: " + step);
+                }
+            }
+        }
+    }
+
+    // Return the query plan of the SQL, one step per line, or null if it can't be explained.
+    // The plan doesn't depend on the values of the arguments, so none are bound. The plan is
+    // read from the database directly, so it doesn't replace the last query.
+    private static String explain(SQLiteDatabase database, String sql) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            try {
+                int detailColumn = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) {
+                    if (plan.length() > 0) {
+                        plan.append('\n');
+                    }
+                    plan.append(cursor.getString(detailColumn));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Failed to explain " + sql, e);
+            return null;
+        }
+        return plan.toString();
+    }
+}
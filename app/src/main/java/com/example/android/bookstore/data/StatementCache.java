@@ -0,0 +1,126 @@
+package com.example.android.bookstore.data;
+
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cache of compiled statements for the provider's most frequent calls, keyed by their SQL.
+ * <p>
+ * The bound arguments are part of a statement's state, so every thread gets its own statements
+ * and never has to lock them. That also keeps a thread that is inside a transaction from
+ * waiting on a statement held by another thread. The statements of a thread that has ended,
+ * like an import's, are closed when the next thread compiles its first statement, so the cache
+ * only holds the statements of threads that are still alive.
+ */
+final class StatementCache {
+
+    // Database helper object the statements are compiled against.
+    private final SQLiteOpenHelper dbHelper;
+
+    // Statements of the current thread. Replaced by close(), so no thread keeps using
+    // statements that have been closed.
+    private volatile ThreadLocal<Map<String, SQLiteStatement>> threadStatements =
+            newThreadStatements();
+
+    // Statements of every thread that has compiled any, so they can all be closed together,
+    // and those of a thread closed once it has ended. Guarded by itself.
+    private final Map<Thread, Map<String, SQLiteStatement>> statementsByThread =
+            new HashMap<>();
+
+    /**
+     * Constructs a new {@link StatementCache}.
+     *
+     * @param dbHelper helper for the database the statements run on
+     */
+    StatementCache(SQLiteOpenHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    /**
+     * Returns the compiled statement for the given SQL, with its bindings cleared. The statement
+     * must only be used on the calling thread.
+     *
+     * @param sql statement to compile
+     * @return the compiled statement
+     */
+    SQLiteStatement get(String sql) {
+        Map<String, SQLiteStatement> statements = threadStatements.get();
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = dbHelper.getWritableDatabase().compileStatement(sql);
+            synchronized (statementsByThread) {
+                statements.put(sql, statement);
+            }
+        } else {
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    /**
+     * Closes all cached statements. They are compiled again the next time they are needed,
+     * for example after the database has been reopened. Must not be called while another
+     * thread is running one of the statements.
+     */
+    void close() {
+        threadStatements = newThreadStatements();
+        synchronized (statementsByThread) {
+            for (Map<String, SQLiteStatement> statements : statementsByThread.values()) {
+                closeAll(statements);
+            }
+            statementsByThread.clear();
+        }
+    }
+
+    /**
+     * Returns the number of threads the cache holds statements for.
+     *
+     * @return the number of threads
+     */
+    int threadCount() {
+        synchronized (statementsByThread) {
+            return statementsByThread.size();
+        }
+    }
+
+    // Create the per-thread maps of statements. A thread's map is registered when it is
+    // created, after closing the statements of the threads that have ended.
+    private ThreadLocal<Map<String, SQLiteStatement>> newThreadStatements() {
+        return new ThreadLocal<Map<String, SQLiteStatement>>() {
+            @Override
+            protected Map<String, SQLiteStatement> initialValue() {
+                Map<String, SQLiteStatement> statements = new HashMap<>();
+                synchronized (statementsByThread) {
+                    closeEndedThreads();
+                    statementsByThread.put(Thread.currentThread(), statements);
+                }
+                return statements;
+            }
+        };
+    }
+
+    // Close the statements of the threads that have ended. A thread that has ended can't be
+    // using its statements anymore. The caller holds the lock of statementsByThread.
+    private void closeEndedThreads() {
+        Iterator<Map.Entry<Thread, Map<String, SQLiteStatement>>> entries =
+                statementsByThread.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Thread, Map<String, SQLiteStatement>> entry = entries.next();
+            if (!entry.getKey().isAlive()) {
+                closeAll(entry.getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    // Close all statements of the given map.
+    private static void closeAll(Map<String, SQLiteStatement> statements) {
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+    }
+}
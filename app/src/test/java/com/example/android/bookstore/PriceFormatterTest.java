@@ -0,0 +1,75 @@
+package com.example.android.bookstore;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for {@link PriceFormatter}.
+ */
+public class PriceFormatterTest {
+
+    @Test
+    public void format_usesLocaleCurrencyFormat() {
+        PriceFormatter formatter = new PriceFormatter(Locale.US);
+
+        assertEquals("$0.05", formatter.format(5));
+        assertEquals("$9.99", formatter.format(999));
+        assertEquals("$1,234,567.80", formatter.format(123456780));
+    }
+
+    @Test
+    public void format_matchesNumberFormat() {
+        PriceFormatter formatter = new PriceFormatter(Locale.GERMANY);
+
+        assertEquals(java.text.NumberFormat.getCurrencyInstance(Locale.GERMANY)
+                .format(1234567.8), formatter.format(123456780));
+    }
+
+    @Test
+    public void format_currencyWithoutDecimals_roundsToWholeUnits() {
+        PriceFormatter formatter = new PriceFormatter(Locale.JAPAN);
+
+        assertEquals(java.text.NumberFormat.getCurrencyInstance(Locale.JAPAN)
+                .format(1000), formatter.format(100000));
+        assertEquals(java.text.NumberFormat.getCurrencyInstance(Locale.JAPAN)
+                .format(13), formatter.format(1250));
+    }
+
+    @Test
+    public void format_currencyWithThreeDecimals_hasThreeDecimals() {
+        Locale kuwait = new Locale("en", "KW");
+        PriceFormatter formatter = new PriceFormatter(kuwait);
+
+        assertEquals(java.text.NumberFormat.getCurrencyInstance(kuwait)
+                .format(1234.5), formatter.format(123450));
+    }
+
+    @Test
+    public void toPlainString_hasTwoDecimalsAndNoGrouping() {
+        assertEquals("0.00", PriceFormatter.toPlainString(0));
+        assertEquals("7.50", PriceFormatter.toPlainString(750));
+        assertEquals("258963.99", PriceFormatter.toPlainString(25896399));
+    }
+
+    @Test
+    public void parseCents_isExact() {
+        assertEquals(750, PriceFormatter.parseCents("7.5"));
+        assertEquals(1, PriceFormatter.parseCents("0.01"));
+        assertEquals(29, PriceFormatter.parseCents(".29"));
+        assertEquals(1000, PriceFormatter.parseCents("10"));
+        assertEquals(1001, PriceFormatter.parseCents("10.005"));
+    }
+
+    @Test
+    public void plainString_roundTrips() {
+        assertEquals(123456, PriceFormatter.parseCents(PriceFormatter.toPlainString(123456)));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void parseCents_rejectsText() {
+        PriceFormatter.parseCents("abc");
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.android.bookstore.data;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for reading the records of a CSV file with {@link CsvReader}.
+ */
+public class CsvReaderTest {
+
+    @Test
+    public void readRecord_splitsFieldsAndLines() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b,c\r\n1,,3\n"));
+
+        assertArrayEquals(new String[]{"a", "b", "c"}, csv.readRecord());
+        assertArrayEquals(new String[]{"1", "", "3"}, csv.readRecord());
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void readRecord_lastLineWithoutLineBreak_isRead() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("a,b\n1,2"));
+
+        csv.readRecord();
+        assertArrayEquals(new String[]{"1", "2"}, csv.readRecord());
+        assertNull(csv.readRecord());
+    }
+
+    @Test
+    public void readRecord_quotedField_keepsCommasQuotesAndLineBreaks() throws IOException {
+        CsvReader csv = new CsvReader(new StringReader("\"Hello, \"\"World\"\"\",\"two\nlines\"\nx\n"));
+
+        assertArrayEquals(new String[]{"Hello, \"World\"", "two\nlines"}, csv.readRecord());
+        assertEquals(3, csv.getLineNumber());
+        assertArrayEquals(new String[]{"x"}, csv.readRecord());
+    }
+
+    @Test(expected = IOException.class)
+    public void readRecord_unclosedQuote_throws() throws IOException {
+        new CsvReader(new StringReader("\"never closed\n")).readRecord();
+    }
+}
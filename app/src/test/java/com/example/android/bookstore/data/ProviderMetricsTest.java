@@ -0,0 +1,108 @@
+package com.example.android.bookstore.data;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class ProviderMetricsTest {
+
+    // Match codes of the URIs of the test metrics.
+    private static final int BOOKS = 100;
+    private static final int BOOK = 101;
+
+    private final ProviderMetrics metrics = new ProviderMetrics(BOOKS,
+            new String[]{"books", "book"});
+
+    @Test
+    public void bucketOf_isPowerOfTwoOfMicroseconds() {
+        assertEquals(0, ProviderMetrics.bucketOf(999));
+        assertEquals(1, ProviderMetrics.bucketOf(1000));
+        assertEquals(2, ProviderMetrics.bucketOf(2000));
+        assertEquals(2, ProviderMetrics.bucketOf(3999));
+        assertEquals(11, ProviderMetrics.bucketOf(1500000));
+        assertEquals(ProviderMetrics.BUCKET_COUNT - 1, ProviderMetrics.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void record_countsCallsAndRowsPerOperationAndUri() {
+        metrics.record(ProviderMetrics.QUERY, BOOKS, 1000, 20);
+        metrics.record(ProviderMetrics.QUERY, BOOKS, 1000, 30);
+        metrics.record(ProviderMetrics.UPDATE, BOOK, 1000, 1);
+
+        assertEquals(2, metrics.calls(ProviderMetrics.QUERY, BOOKS));
+        assertEquals(50, metrics.rows(ProviderMetrics.QUERY, BOOKS));
+        assertEquals(1, metrics.calls(ProviderMetrics.UPDATE, BOOK));
+        assertEquals(0, metrics.calls(ProviderMetrics.QUERY, BOOK));
+    }
+
+    @Test
+    public void record_unknownCode_isIgnored() {
+        metrics.record(ProviderMetrics.QUERY, -1, 1000, 1);
+        metrics.record(ProviderMetrics.QUERY, BOOK + 1, 1000, 1);
+        metrics.recordNotification(-1);
+
+        assertEquals(0, metrics.calls(ProviderMetrics.QUERY, BOOKS));
+        assertEquals(0, metrics.calls(ProviderMetrics.QUERY, BOOK));
+    }
+
+    @Test
+    public void percentileMicros_isUpperBoundOfBucket() {
+        for (int i = 0; i < 90; i++) {
+            metrics.record(ProviderMetrics.QUERY, BOOKS, 100000, 1);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record(ProviderMetrics.QUERY, BOOKS, 5000000, 1);
+        }
+
+        assertEquals(128, metrics.percentileMicros(ProviderMetrics.QUERY, BOOKS, 50));
+        assertEquals(128, metrics.percentileMicros(ProviderMetrics.QUERY, BOOKS, 90));
+        assertEquals(8192, metrics.percentileMicros(ProviderMetrics.QUERY, BOOKS, 99));
+        assertEquals(0, metrics.percentileMicros(ProviderMetrics.DELETE, BOOKS, 50));
+    }
+
+    @Test
+    public void dump_listsCalledOperationsAndNotifications() {
+        metrics.record(ProviderMetrics.DELETE, BOOK, 1000, 1);
+        metrics.recordNotification(BOOK);
+        metrics.recordNotification(BOOK);
+
+        StringWriter out = new StringWriter();
+        metrics.dump(new PrintWriter(out));
+
+        String dump = out.toString();
+        assertTrue(dump.contains("delete:book"));
+        assertFalse(dump.contains("query:books"));
+        assertEquals(2, metrics.notifications(BOOK));
+    }
+
+    @Test
+    public void record_doesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up, so the recording code is compiled before it is measured.
+        recordMany(100000);
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        recordMany(100000);
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // Allow for the few bytes the measurement itself may allocate.
+        assertTrue("Recording allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    // Record many calls and notifications.
+    private void recordMany(int count) {
+        for (int i = 0; i < count; i++) {
+            metrics.record(ProviderMetrics.QUERY, BOOKS, i * 100L, i % 50);
+            metrics.recordNotification(BOOK);
+        }
+    }
+}
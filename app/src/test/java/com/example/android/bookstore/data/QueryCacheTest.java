@@ -0,0 +1,44 @@
+package com.example.android.bookstore.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit test for the query keys of {@link QueryCache}.
+ */
+public class QueryCacheTest {
+
+    @Test
+    public void normalize_collapsesWhitespaceOutsideQuotes() {
+        assertEquals("quantity = 0 AND author = ?",
+                QueryCache.normalize("  quantity =\t0\n AND   author = ? "));
+    }
+
+    @Test
+    public void normalize_keepsQuotedText() {
+        assertEquals("product_name = 'Two  spaces' AND author = 'It''s  me'",
+                QueryCache.normalize("product_name =  'Two  spaces' AND author = 'It''s  me'"));
+    }
+
+    @Test
+    public void key_sameQueryWithDifferentWhitespace_isEqual() {
+        String[] projection = new String[]{"_id", "product_name"};
+        assertEquals(
+                QueryCache.key(null, projection, "quantity = ?", new String[]{"0"}, "author"),
+                QueryCache.key(null, projection, " quantity  = ? ", new String[]{"0"}, "author "));
+    }
+
+    @Test
+    public void key_partsCannotRunIntoEachOther() {
+        assertNotEquals(
+                QueryCache.key(null, null, "a", new String[]{"b", "c"}, null),
+                QueryCache.key(null, null, "a", new String[]{"bc"}, null));
+        assertNotEquals(
+                QueryCache.key(null, new String[]{"_id"}, null, null, null),
+                QueryCache.key(null, null, null, null, null));
+        assertNotEquals(
+                QueryCache.key("page_size=10", null, null, null, null),
+                QueryCache.key("page_size=20", null, null, null, null));
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.bookstore.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlowQueryLogTest {
+
+    private final SlowQueryLog log = new SlowQueryLog(3, 100);
+
+    @Test
+    public void isSlow_fromThresholdOn() {
+        assertFalse(log.isSlow(99999999));
+        assertTrue(log.isSlow(100000000));
+
+        log.setThresholdMillis(0);
+
+        assertTrue(log.isSlow(0));
+    }
+
+    @Test
+    public void getEntries_newestFirst() {
+        log.add(entry("first"));
+        log.add(entry("second"));
+
+        SlowQueryLog.Entry[] entries = log.getEntries();
+
+        assertEquals(2, entries.length);
+        assertEquals("second", entries[0].sql);
+        assertEquals("first", entries[1].sql);
+    }
+
+    @Test
+    public void add_dropsOldestWhenFull() {
+        for (int i = 1; i <= 5; i++) {
+            log.add(entry("query " + i));
+        }
+
+        SlowQueryLog.Entry[] entries = log.getEntries();
+
+        assertEquals(3, entries.length);
+        assertEquals("query 5", entries[0].sql);
+        assertEquals("query 4", entries[1].sql);
+        assertEquals("query 3", entries[2].sql);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsEmptyCapacity() {
+        new SlowQueryLog(0, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setThresholdMillis_rejectsNegativeThreshold() {
+        log.setThresholdMillis(-1);
+    }
+
+    // Return a slow query with the given SQL.
+    private static SlowQueryLog.Entry entry(String sql) {
+        return new SlowQueryLog.Entry(0, "content://bookstore/books", sql, null, 200000000, 1,
+                null);
+    }
+}